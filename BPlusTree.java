@@ -3,48 +3,80 @@ import java.util.*;
 public class BPlusTree {
 
     int m; // branching factor
+    final boolean multiValue; // each key holds a PostingList, and its value is the list's size
     InternalNode root;
     LeafNode firstLeaf;
+    LeafNode lastLeaf; // the rightmost leaf, so appends skip the descent; null when unknown
+    SplitPolicy splitPolicy = SplitPolicy.MIDPOINT;
+    int linearSearchMaxKeys = DEFAULT_LINEAR_SEARCH_MAX_KEYS; // larger internal nodes are binary searched
+    long leafSplits, internalSplits; // since the tree was created, see stats()
+
+    static final int DEFAULT_LINEAR_SEARCH_MAX_KEYS = 16;
+
+    // LeafNode object (48) plus the headers of its key and value arrays (16 each)
+    static final int LEAF_OVERHEAD_BYTES = 48 + 16 + 16;
 
     /* ~~~~~~~~~~~~~~~~ HELPER FUNCTIONS ~~~~~~~~~~~~~~~~ */
 
     /**
      * 
-     * This method performs a standard binary search on a sorted
+     * This method performs a standard binary search on the sorted keys of a
      * 
-     * DictionaryPair[] and returns the index of the dictionary pair
+     * leaf node and returns the index of the target key t if found. Otherwise,
      * 
-     * with target key t if found. Otherwise, this method returns a negative
+     * this method returns a negative value.
      * 
-     * value.
+     * @param keys:     list of keys sorted within leaf node
      * 
-     * @param dps: list of dictionary pairs sorted by key within leaf node
+     * @param numPairs: number of keys in use within the leaf node
      * 
-     * @param t:   target key value of dictionary pair being searched for
+     * @param t:        target key being searched for
      * 
      * @return index of the target value if found, else a negative value
      * 
      */
 
-    private int binarySearch(DictionaryPair[] dps, int numPairs, int t) {
+    private int binarySearch(long[] keys, int numPairs, long t) {
 
-        Comparator<DictionaryPair> c = new Comparator<DictionaryPair>() {
+        return Arrays.binarySearch(keys, 0, numPairs, t);
+
+    }
 
-            @Override
+    /**
+     * 
+     * This method performs a binary search for the slot at which key t belongs
+     * 
+     * within the first n sorted keys: after every key <= t, so that a key equal
+     * 
+     * to ones already present is placed after them.
+     * 
+     * @param keys: list of sorted keys
+     * 
+     * @param n:    number of keys in use
+     * 
+     * @param t:    key whose slot is being searched for
+     * 
+     * @return the index of the first key greater than t, or n if there is none
+     * 
+     */
 
-            public int compare(DictionaryPair o1, DictionaryPair o2) {
+    static int insertionPoint(long[] keys, int n, long t) {
 
-                Integer a = Integer.valueOf(o1.key);
+        int lo = 0, hi = n;
 
-                Integer b = Integer.valueOf(o2.key);
+        while (lo < hi) {
 
-                return a.compareTo(b);
+            int mid = (lo + hi) >>> 1;
 
+            if (keys[mid] <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
 
-        };
+        }
 
-        return Arrays.binarySearch(dps, 0, numPairs, new DictionaryPair(t, 0), c);
+        return lo;
 
     }
 
@@ -54,7 +86,9 @@ public class BPlusTree {
      * 
      * tree via key comparisons to the corresponding leaf node that holds 'key'
      * 
-     * within its dictionary.
+     * within its dictionary. The descent is iterative, one findChildIndex()
+     * 
+     * per level.
      * 
      * @param key: the unique key that lies within the dictionary of a LeafNode
      *             object
@@ -63,80 +97,80 @@ public class BPlusTree {
      * 
      */
 
-    private LeafNode findLeafNode(int key) {
-
-        // Initialize keys and index variable
+    private LeafNode findLeafNode(long key) {
 
-        Integer[] keys = this.root.keys;
+        Node node = this.root;
 
-        int i;
+        // Find next node on path to appropriate leaf node until a leaf is reached
 
-        // Find next node on path to appropriate leaf node
+        while (node instanceof InternalNode) {
 
-        for (i = 0; i < this.root.degree - 1; i++) {
+            InternalNode in = (InternalNode) node;
 
-            if (key < keys[i]) {
-                break;
-            }
+            node = in.childPointers[findChildIndex(in, key)];
 
         }
 
-        /*
-         * Return node if it is a LeafNode object,
-         * 
-         * otherwise repeat the search function a level down
-         */
-
-        Node child = this.root.childPointers[i];
-
-        if (child instanceof LeafNode) {
-
-            return (LeafNode) child;
-
-        } else {
-
-            return findLeafNode((InternalNode) child, key);
-
-        }
+        return (LeafNode) node;
 
     }
 
-    private LeafNode findLeafNode(InternalNode node, int key) {
+    /**
+     * 
+     * This method returns the index of the child of 'in' whose subtree may
+     * 
+     * hold 'key', i.e. the number of keys within 'in' that are <= 'key'. Nodes
+     * 
+     * with at most linearSearchMaxKeys keys are scanned linearly, which is
+     * 
+     * cheapest for small fanouts; larger nodes are binary searched.
+     * 
+     * @param in:  the InternalNode being descended through
+     * 
+     * @param key: the key being searched for
+     * 
+     * @return the index of the child pointer to follow
+     * 
+     */
 
-        // Initialize keys and index variable
+    private int findChildIndex(InternalNode in, long key) {
 
-        Integer[] keys = node.keys;
+        long[] keys = in.keys;
 
-        int i;
+        int numKeys = in.degree - 1;
 
-        // Find next node on path to appropriate leaf node
+        if (numKeys <= this.linearSearchMaxKeys) {
 
-        for (i = 0; i < node.degree - 1; i++) {
+            int i = 0;
 
-            if (key < keys[i]) {
-                break;
+            while (i < numKeys && key >= keys[i]) {
+                i++;
             }
 
+            return i;
+
         }
 
-        /*
-         * Return node if it is a LeafNode object,
-         * 
-         * otherwise repeat the search function a level down
-         */
+        // Upper bound: the first key greater than 'key'
 
-        Node childNode = node.childPointers[i];
+        int lo = 0;
 
-        if (childNode instanceof LeafNode) {
+        int hi = numKeys;
 
-            return (LeafNode) childNode;
+        while (lo < hi) {
 
-        } else {
+            int mid = (lo + hi) >>> 1;
 
-            return findLeafNode((InternalNode) node.childPointers[i], key);
+            if (key < keys[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
 
         }
 
+        return lo;
+
     }
 
     /**
@@ -173,99 +207,129 @@ public class BPlusTree {
 
     /**
      * 
-     * This method performs a standard linear search on a sorted
+     * This method counts the dictionary pairs within the B+ tree by walking the
      * 
-     * DictionaryPair[] and returns the index of the first null entry found.
+     * leaf nodes from firstLeaf.
      * 
-     * Otherwise, this method returns a -1. This method is primarily used in
-     * 
-     * place of binarySearch() when the target t = null.
-     * 
-     * @param dps: list of dictionary pairs sorted by key within leaf node
-     * 
-     * @return index of the target value if found, else -1
+     * @return the number of dictionary pairs within the B+ tree
      * 
      */
 
-    private int linearNullSearch(DictionaryPair[] dps) {
+    public int size() {
 
-        for (int i = 0; i < dps.length; i++) {
-
-            if (dps[i] == null) {
-                return i;
-            }
+        int size = 0;
 
+        for (LeafNode ln = this.firstLeaf; ln != null; ln = ln.rightSibling) {
+            size += ln.numPairs;
         }
 
-        return -1;
+        return size;
 
     }
 
     /**
      * 
-     * This method performs a standard linear search on a list of Node[] pointers
-     * 
-     * and returns the index of the first null entry found. Otherwise, this
+     * This method copies every dictionary pair, in key order, into the given
      * 
-     * method returns a -1. This method is primarily used in place of
+     * arrays by walking the leaf nodes from firstLeaf.
      * 
-     * binarySearch() when the target t = null.
+     * @param keys:   array of at least size() elements to receive the keys
      * 
-     * @param pointers: list of Node[] pointers
+     * @param values: array of at least size() elements to receive the values
      * 
-     * @return index of the target value if found, else -1
+     * @return the number of pairs copied
      * 
      */
 
-    private int linearNullSearch(Node[] pointers) {
+    public int copyEntries(long[] keys, long[] values) {
 
-        for (int i = 0; i < pointers.length; i++) {
+        int n = 0;
+
+        for (LeafNode ln = this.firstLeaf; ln != null; ln = ln.rightSibling) {
+
+            for (int i = 0; i < ln.numPairs; i++, n++) {
+
+                keys[n] = ln.keys[i];
+
+                values[n] = ln.values[i];
 
-            if (pointers[i] == null) {
-                return i;
             }
 
         }
 
-        return -1;
+        return n;
 
     }
 
     /**
      * 
-     * This is a specialized sorting method used upon lists of DictionaryPairs
+     * This method gathers the shape of the B+ tree: its height, how full its
      * 
-     * that may contain interspersed null values.
+     * leaf nodes are, and how many nodes have been split so far. It walks every
      * 
-     * @param dictionary: a list of DictionaryPair objects
+     * leaf node, so it is meant for monitoring rather than the hot path.
+     * 
+     * @return the statistics of the B+ tree
      * 
      */
 
-    private void sortDictionary(DictionaryPair[] dictionary) {
+    public Stats stats() {
 
-        Arrays.sort(dictionary, new Comparator<DictionaryPair>() {
+        Stats stats = new Stats();
 
-            @Override
+        stats.height = (this.firstLeaf == null) ? 0 : 1;
 
-            public int compare(DictionaryPair o1, DictionaryPair o2) {
+        for (Node node = this.root; node instanceof InternalNode; node = ((InternalNode) node).childPointers[0]) {
+            stats.height++;
+        }
 
-                if (o1 == null && o2 == null) {
-                    return 0;
-                }
+        for (LeafNode ln = this.firstLeaf; ln != null; ln = ln.rightSibling) {
 
-                if (o1 == null) {
-                    return 1;
-                }
+            int bucket = ln.numPairs * Stats.FILL_BUCKETS / ln.maxNumPairs;
 
-                if (o2 == null) {
-                    return -1;
-                }
+            stats.leafFill[Math.min(bucket, Stats.FILL_BUCKETS - 1)]++;
+
+            stats.leafCount++;
+
+            stats.size += ln.numPairs;
+
+        }
+
+        stats.leafSplits = this.leafSplits;
+
+        stats.internalSplits = this.internalSplits;
+
+        return stats;
+
+    }
+
+    /**
+     * 
+     * This method performs a standard linear search on a list of Node[] pointers
+     * 
+     * and returns the index of the first null entry found. Otherwise, this
+     * 
+     * method returns a -1. This method is primarily used in place of
+     * 
+     * binarySearch() when the target t = null.
+     * 
+     * @param pointers: list of Node[] pointers
+     * 
+     * @return index of the target value if found, else -1
+     * 
+     */
+
+    private int linearNullSearch(Node[] pointers) {
 
-                return o1.compareTo(o2);
+        for (int i = 0; i < pointers.length; i++) {
 
+            if (pointers[i] == null) {
+                return i;
             }
 
-        });
+        }
+
+        return -1;
 
     }
 
@@ -293,15 +357,11 @@ public class BPlusTree {
 
         Node[] halfPointers = new Node[this.m + 1];
 
-        // Copy half of the values into halfPointers while updating original keys
-
-        for (int i = split + 1; i < pointers.length; i++) {
-
-            halfPointers[i - split - 1] = pointers[i];
+        // Move the pointers after the split into halfPointers; the caller recounts the degree
 
-            in.removePointer(i);
+        System.arraycopy(pointers, split + 1, halfPointers, 0, pointers.length - split - 1);
 
-        }
+        Arrays.fill(pointers, split + 1, pointers.length, null);
 
         return halfPointers;
 
@@ -317,23 +377,33 @@ public class BPlusTree {
      * 
      * split the overfull node.
      * 
-     * @param in: an overfull InternalNode that is to be split
+     * @param in:        an overfull InternalNode that is to be split
+     * 
+     * @param rightEdge: whether the overflow comes from appending past the
+     * 
+     *                   largest key under the APPEND split policy, in which
+     * 
+     *                   case only the last two pointers move to the new node,
+     * 
+     *                   so that each of its children still has a sibling
      * 
      */
 
-    private void splitInternalNode(InternalNode in) {
+    private void splitInternalNode(InternalNode in, boolean rightEdge) {
+
+        this.internalSplits++;
 
         // Acquire parent
 
         InternalNode parent = in.parent;
 
-        // Split keys and pointers in half
+        // Split keys and pointers in half, or leave 'in' full at the right edge
 
-        int midpoint = getMidpoint();
+        int midpoint = rightEdge ? in.degree - 3 : getMidpoint();
 
-        int newParentKey = in.keys[midpoint];
+        long newParentKey = in.keys[midpoint];
 
-        Integer[] halfKeys = splitKeys(in.keys, midpoint);
+        long[] halfKeys = splitKeys(in.keys, midpoint);
 
         Node[] halfPointers = splitChildPointers(in, midpoint);
 
@@ -371,7 +441,7 @@ public class BPlusTree {
 
             // Create new root node and add midpoint key and pointers
 
-            Integer[] keys = new Integer[this.m];
+            long[] keys = new long[this.m];
 
             keys[0] = newParentKey;
 
@@ -393,9 +463,7 @@ public class BPlusTree {
 
             // Add key to parent
 
-            parent.keys[parent.degree - 1] = newParentKey;
-
-            Arrays.sort(parent.keys, 0, parent.degree);
+            parent.insertKey(newParentKey);
 
             // Set up pointer to new sibling
 
@@ -411,75 +479,104 @@ public class BPlusTree {
 
     /**
      * 
-     * This method modifies a list of Integer-typed objects that represent keys
+     * This method moves the keys of an overfull InternalNode that lie after the
+     * 
+     * split index into a separate long[]. The key at the split index itself is
      * 
-     * by removing half of the keys and returning them in a separate Integer[].
+     * promoted to the parent by the caller. This method is used when splitting
      * 
-     * This method is used when splitting an InternalNode object.
+     * an InternalNode object.
      * 
-     * @param keys:  a list of Integer objects
+     * @param keys:  the keys of the InternalNode being split
      * 
      * @param split: the index where the split is to occur
      * 
-     * @return Integer[] of removed keys
+     * @return long[] of removed keys
      * 
      */
 
-    private Integer[] splitKeys(Integer[] keys, int split) {
+    private long[] splitKeys(long[] keys, int split) {
+
+        long[] halfKeys = new long[this.m];
+
+        // Copy half of the values into halfKeys; the InternalNode's degree bounds the rest
+
+        System.arraycopy(keys, split + 1, halfKeys, 0, keys.length - split - 1);
+
+        return halfKeys;
+
+    }
+
+    /**
+     * 
+     * This method moves the dictionary pairs of an overfull LeafNode from the
+     * 
+     * split index onwards into a new LeafNode, which becomes the right half.
+     * 
+     * @param ln:    the overfull LeafNode to be split
+     * 
+     * @param split: the index where the split is to occur
+     * 
+     * @return a LeafNode holding the removed pairs
+     * 
+     */
 
-        Integer[] halfKeys = new Integer[this.m];
+    private LeafNode splitDictionary(LeafNode ln, int split) {
 
-        // Remove split-indexed value from keys
+        this.leafSplits++;
 
-        keys[split] = null;
+        long[] halfKeys = new long[this.m];
 
-        // Copy half of the values into halfKeys while updating original keys
+        long[] halfValues = new long[this.m];
 
-        for (int i = split + 1; i < keys.length; i++) {
+        int count = ln.numPairs - split;
 
-            halfKeys[i - split - 1] = keys[i];
+        // Copy half of the pairs into the new arrays and drop them from ln
 
-            keys[i] = null;
+        System.arraycopy(ln.keys, split, halfKeys, 0, count);
 
-        }
+        System.arraycopy(ln.values, split, halfValues, 0, count);
 
-        return halfKeys;
+        ln.numPairs = split;
 
-    }
+        LeafNode half = new LeafNode(this.m, halfKeys, halfValues, count, null);
 
-    private DictionaryPair[] splitDictionary(LeafNode ln, int split) {
+        if (this.multiValue) {
 
-        DictionaryPair[] dictionary = ln.dictionary;
+            System.arraycopy(ln.postings, split, half.postings, 0, count);
 
-        /*
-         * Initialize two dictionaries that each hold half of the original
-         * dictionary values
-         */
-        DictionaryPair[] halfDict = new DictionaryPair[this.m];
+            Arrays.fill(ln.postings, split, split + count, null);
 
-        // Copy half of the values into halfDict
-        for (int i = split; i < dictionary.length; i++) {
-            halfDict[i - split] = dictionary[i];
-            ln.delete(i);
         }
 
-        return halfDict;
+        return half;
+
     }
 
     /* ~~~~~~~~~~~~~~~~ API:INSERT, SEARCH ~~~~~~~~~~~~~~~~ */
     /**
      * 
-     * Given an integer key and floating point value, this method inserts a
+     * Given a long key and a long value, this method inserts a dictionary
+     * 
+     * pair accordingly into the B+ tree. Keys are not checked for duplicates,
      * 
-     * dictionary pair accordingly into the B+ tree.
+     * so a caller replacing the value of a key deletes the key first.
      * 
-     * @param key:   an integer key to be used in the dictionary pair
+     * @param key:   a long key to be used in the dictionary pair
      * 
-     * @param value: a floating point number to be used in the dictionary pair
+     * @param value: a long value to be used in the dictionary pair
      * 
      */
 
-    public void insert(int key, long value) {
+    public void insert(long key, long value) {
+
+        insert(key, value, null);
+
+    }
+
+    // In multi-value mode, 'postings' (or a new empty list if null) becomes the key's list
+
+    private void insert(long key, long value, PostingList postings) {
 
         if (isEmpty()) {
 
@@ -487,37 +584,51 @@ public class BPlusTree {
 
             // Create leaf node as first node in B plus tree (root is null)
 
-            LeafNode ln = new LeafNode(this.m, new DictionaryPair(key, value));
+            LeafNode ln = new LeafNode(this.m, key, value);
+
+            if (this.multiValue && postings != null) {
+                ln.postings[0] = postings;
+            }
 
             // Set as first leaf node (can be used later for in-order leaf traversal)
 
             this.firstLeaf = ln;
 
+            this.lastLeaf = ln;
+
         } else {
 
-            // Find leaf node to insert into
+            // Find leaf node to insert into, going straight to the last one for keys past the end
 
-            LeafNode ln = (this.root == null) ? this.firstLeaf :
+            LeafNode ln = this.lastLeaf;
 
-                    findLeafNode(key);
+            if (ln == null || ln.numPairs == 0 || key <= ln.keys[ln.numPairs - 1]) {
+
+                ln = (this.root == null) ? this.firstLeaf : findLeafNode(key);
+
+                if (ln.rightSibling == null) {
+                    this.lastLeaf = ln;
+                }
+
+            }
 
             // Insert into leaf node fails if node becomes overfull
 
-            if (!ln.insert(new DictionaryPair(key, value))) {
+            if (!ln.insert(key, value, postings)) {
 
-                // Sort all the dictionary pairs with the included pair to be inserted
+                // Place the pair in its sorted position within the spare slot of the arrays
 
-                ln.dictionary[ln.numPairs] = new DictionaryPair(key, value);
+                ln.place(key, value, postings);
 
-                ln.numPairs++;
+                // Split the sorted pairs into two halves, or move only the new pair when appending
 
-                sortDictionary(ln.dictionary);
+                boolean rightEdge = this.splitPolicy == SplitPolicy.APPEND && ln.rightSibling == null
 
-                // Split the sorted pairs into two halves
+                        && ln.keys[ln.numPairs - 1] == key;
 
-                int midpoint = getMidpoint();
+                int midpoint = rightEdge ? ln.numPairs - 1 : getMidpoint();
 
-                DictionaryPair[] halfDict = splitDictionary(ln, midpoint);
+                LeafNode newLeafNode = splitDictionary(ln, midpoint);
 
                 if (ln.parent == null) {
 
@@ -525,9 +636,9 @@ public class BPlusTree {
 
                     // Create internal node to serve as parent, use dictionary midpoint key
 
-                    Integer[] parent_keys = new Integer[this.m];
+                    long[] parent_keys = new long[this.m];
 
-                    parent_keys[0] = halfDict[0].key;
+                    parent_keys[0] = newLeafNode.keys[0];
 
                     InternalNode parent = new InternalNode(this.m, parent_keys);
 
@@ -541,17 +652,15 @@ public class BPlusTree {
 
                     // Add new key to parent for proper indexing
 
-                    int newParentKey = halfDict[0].key;
-
-                    ln.parent.keys[ln.parent.degree - 1] = newParentKey;
+                    long newParentKey = newLeafNode.keys[0];
 
-                    Arrays.sort(ln.parent.keys, 0, ln.parent.degree);
+                    ln.parent.insertKey(newParentKey);
 
                 }
 
-                // Create new LeafNode that holds the other half
+                // Attach the new LeafNode that holds the other half
 
-                LeafNode newLeafNode = new LeafNode(this.m, halfDict, ln.parent);
+                newLeafNode.parent = ln.parent;
 
                 // Update child pointers of parent node
 
@@ -573,6 +682,10 @@ public class BPlusTree {
 
                 newLeafNode.leftSibling = ln;
 
+                if (newLeafNode.rightSibling == null) {
+                    this.lastLeaf = newLeafNode;
+                }
+
                 if (this.root == null) {
 
                     // Set the root of B+ tree to be the parent
@@ -593,7 +706,7 @@ public class BPlusTree {
 
                         if (in.isOverfull()) {
 
-                            splitInternalNode(in);
+                            splitInternalNode(in, rightEdge);
 
                         } else {
 
@@ -621,11 +734,13 @@ public class BPlusTree {
      * 
      * @param key: the key to be searched within the B+ tree
      * 
-     * @return the floating point value associated with the key within the B+ tree
+     * @return the value associated with the key within the B+ tree, boxed, or
+     * 
+     *         null if the key is not in the B+ tree
      * 
      */
 
-    public Long search(int key) {
+    public Long search(long key) {
 
         // If B+ tree is completely empty, simply return null
 
@@ -639,9 +754,7 @@ public class BPlusTree {
 
         // Perform binary search to find index of key within dictionary
 
-        DictionaryPair[] dps = ln.dictionary;
-
-        int index = binarySearch(dps, ln.numPairs, key);
+        int index = binarySearch(ln.keys, ln.numPairs, key);
 
         // If index negative, the key doesn't exist in B+ tree
 
@@ -651,7 +764,7 @@ public class BPlusTree {
 
         } else {
 
-            return dps[index].value;
+            return ln.values[index];
 
         }
 
@@ -659,114 +772,1299 @@ public class BPlusTree {
 
     /**
      * 
-     * Constructor
+     * Given a key, this method returns the value associated with the key, or
      * 
-     * @param m: the order (fanout) of the B+ tree
+     * 'notFound' if the key is not in the B+ tree. Unlike search(long), it never
+     * 
+     * boxes the value, so a lookup allocates nothing on the heap: the descent
+     * 
+     * and the binary search within the leaf only read primitive arrays.
+     * 
+     * @param key:      the key to be searched within the B+ tree
+     * 
+     * @param notFound: the value to be returned when the key is absent
+     * 
+     * @return the value associated with the key, or notFound
      * 
      */
 
-    public BPlusTree(int m) {
+    public long search(long key, long notFound) {
 
-        this.m = m;
+        if (isEmpty()) {
+            return notFound;
+        }
 
-        this.root = null;
+        LeafNode ln = (this.root == null) ? this.firstLeaf : findLeafNode(key);
+
+        int index = binarySearch(ln.keys, ln.numPairs, key);
+
+        return (index < 0) ? notFound : ln.values[index];
 
     }
 
     /**
      * 
-     * This class represents a general node within the B+ tree and serves as a
+     * Given a key and a value, this method sets the value of the key in place
      * 
-     * superclass of InternalNode and LeafNode.
+     * if the key is within the B+ tree, and inserts the pair otherwise.
+     * 
+     * @param key:   the key whose value is set
+     * 
+     * @param value: the value to be associated with the key
+     * 
+     * @return a boolean indicating whether the key was inserted
      * 
      */
 
-    public class Node {
+    public boolean put(long key, long value) {
 
-        InternalNode parent;
+        if (this.multiValue) {
+            throw new IllegalStateException("A multi-value B+ tree holds list sizes as values");
+        }
+
+        if (!isEmpty()) {
+
+            LeafNode ln = (this.root == null) ? this.firstLeaf : findLeafNode(key);
+
+            int index = binarySearch(ln.keys, ln.numPairs, key);
+
+            if (index >= 0) {
+
+                ln.values[index] = value;
+
+                return false;
+
+            }
+
+        }
+
+        insert(key, value);
+
+        return true;
 
     }
 
+    /* ~~~~~~~~~~~~~~~~ API:MULTI-VALUE ~~~~~~~~~~~~~~~~ */
+
     /**
      * 
-     * This class represents the internal nodes within the B+ tree that traffic
+     * Given a key and a value, this method appends the value to the posting
      * 
-     * all search/insert/delete operations. An internal node only holds keys; it
+     * list of the key, adding the key first if it is absent. The pair's value,
      * 
-     * does not hold dictionary pairs.
+     * as returned by search() and cursors, is the size of the list.
+     * 
+     * @param key:   the key whose list the value is appended to
+     * 
+     * @param value: the value to be appended
      * 
      */
 
-    private class InternalNode extends Node {
-
-        int maxDegree;
-
-        int degree;
-
-        InternalNode leftSibling;
+    public void add(long key, long value) {
 
-        InternalNode rightSibling;
+        requireMultiValue();
 
-        Integer[] keys;
+        LeafNode ln = isEmpty() ? null : (this.root == null) ? this.firstLeaf : findLeafNode(key);
 
-        Node[] childPointers;
+        int index = (ln == null) ? -1 : binarySearch(ln.keys, ln.numPairs, key);
 
-        /**
-         * 
-         * This method appends 'pointer' to the end of the childPointers
-         * 
-         * instance variable of the InternalNode object. The pointer can point to
-         * 
-         * an InternalNode object or a LeafNode object since the formal
-         * 
-         * parameter specifies a Node object.
-         * 
-         * @param pointer: Node pointer that is to be appended to the
-         * 
-         *                 childPointers list
-         * 
-         */
+        if (index >= 0) {
 
-        private void appendChildPointer(Node pointer) {
+            ln.postings[index].add(value);
 
-            this.childPointers[degree] = pointer;
+            ln.values[index]++;
 
-            this.degree++;
+            return;
 
         }
 
-        /**
-         * 
-         * Given a Node pointer, this method will return the index of where the
-         * 
-         * pointer lies within the childPointers instance variable. If the pointer
-         * 
-         * can't be found, the method returns -1.
-         * 
-         * @param pointer: a Node pointer that may lie within the childPointers
-         * 
-         *                 instance variable
-         * 
-         * @return the index of 'pointer' within childPointers, or -1 if
-         * 
-         *         'pointer' can't be found
-         * 
-         */
-
-        private int findIndexOfPointer(Node pointer) {
+        PostingList postings = new PostingList();
 
-            for (int i = 0; i < childPointers.length; i++) {
+        postings.add(value);
 
-                if (childPointers[i] == pointer) {
-                    return i;
-                }
+        insert(key, 1, postings);
 
-            }
+    }
+
+    /**
+     * 
+     * Given a key and a value, this method removes the value from the posting
+     * 
+     * list of the key, and the key itself once its list is empty.
+     * 
+     * @param key:   the key whose list the value is removed from
+     * 
+     * @param value: the value to be removed
+     * 
+     * @return a boolean indicating whether the value was found and removed
+     * 
+     */
+
+    public boolean remove(long key, long value) {
+
+        requireMultiValue();
+
+        if (isEmpty()) {
+            return false;
+        }
+
+        LeafNode ln = (this.root == null) ? this.firstLeaf : findLeafNode(key);
+
+        int index = binarySearch(ln.keys, ln.numPairs, key);
+
+        if (index < 0 || !ln.postings[index].remove(value)) {
+            return false;
+        }
+
+        if (--ln.values[index] == 0) {
+            delete(key);
+        }
+
+        return true;
+
+    }
+
+    /**
+     * 
+     * Given a key, this method returns its posting list, or null if the key is
+     * 
+     * absent. The list is live: it must not be changed except through add()
+     * 
+     * and remove().
+     * 
+     * @param key: the key to be searched for
+     * 
+     * @return the posting list of the key, or null
+     * 
+     */
+
+    public PostingList postings(long key) {
+
+        requireMultiValue();
+
+        if (isEmpty()) {
+            return null;
+        }
+
+        LeafNode ln = (this.root == null) ? this.firstLeaf : findLeafNode(key);
+
+        int index = binarySearch(ln.keys, ln.numPairs, key);
+
+        return (index < 0) ? null : ln.postings[index];
+
+    }
+
+    private void requireMultiValue() {
+
+        if (!this.multiValue) {
+            throw new IllegalStateException("Posting lists require a multi-value B+ tree");
+        }
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ API:DELETE ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * Given a key, this method removes the dictionary pair with that key from
+     * 
+     * the B+ tree. A leaf left with fewer than minNumPairs pairs first tries to
+     * 
+     * borrow a pair from a sibling under the same parent and otherwise merges
+     * 
+     * with it; merges remove a key and pointer from the parent, so the same
+     * 
+     * repair is repeated up the tree, and a root left with a single child is
+     * 
+     * replaced by that child.
+     * 
+     * @param key: the key of the dictionary pair to be removed
+     * 
+     * @return a boolean indicating whether the key was found and removed
+     * 
+     */
+
+    public boolean delete(long key) {
+
+        if (isEmpty()) {
+            return false;
+        }
+
+        LeafNode ln = (this.root == null) ? this.firstLeaf : findLeafNode(key);
+
+        int index = binarySearch(ln.keys, ln.numPairs, key);
+
+        if (index < 0) {
+            return false;
+        }
+
+        ln.delete(index);
+
+        // Merges may remove the last leaf, so find it again on the next insert
+
+        this.lastLeaf = null;
+
+        if (ln.parent == null) {
+
+            /* Flow of execution goes here when there is 1 node in tree */
+
+            if (ln.numPairs == 0) {
+                this.firstLeaf = null;
+            }
+
+            return true;
+
+        }
+
+        if (ln.isDeficient()) {
+            handleDeficiency(ln);
+        }
+
+        return true;
+
+    }
+
+    /**
+     * 
+     * This method repairs a deficient LeafNode by borrowing a dictionary pair
+     * 
+     * from its left or right sibling, or by merging with one of them when
+     * 
+     * neither can lend.
+     * 
+     * @param ln: the deficient LeafNode
+     * 
+     */
+
+    private void handleDeficiency(LeafNode ln) {
+
+        InternalNode parent = ln.parent;
+
+        int pointerIndex = parent.findIndexOfPointer(ln);
+
+        LeafNode left = (pointerIndex > 0) ? (LeafNode) parent.childPointers[pointerIndex - 1] : null;
+
+        LeafNode right = (pointerIndex < parent.degree - 1) ? (LeafNode) parent.childPointers[pointerIndex + 1] : null;
+
+        if (left != null && left.isLendable()) {
+
+            // Borrow the largest pair of the left sibling
+
+            ln.place(left.keys[left.numPairs - 1], left.values[left.numPairs - 1], left.postingsAt(left.numPairs - 1));
+
+            left.delete(left.numPairs - 1);
+
+            parent.keys[pointerIndex - 1] = ln.keys[0];
+
+        } else if (right != null && right.isLendable()) {
+
+            // Borrow the smallest pair of the right sibling
+
+            ln.place(right.keys[0], right.values[0], right.postingsAt(0));
+
+            right.delete(0);
+
+            parent.keys[pointerIndex] = right.keys[0];
+
+        } else {
+
+            // Merge with a sibling, always folding the right node into the left one
+
+            LeafNode target = (left != null) ? left : ln;
+
+            LeafNode source = (left != null) ? ln : right;
+
+            int keyIndex = (left != null) ? pointerIndex - 1 : pointerIndex;
+
+            System.arraycopy(source.keys, 0, target.keys, target.numPairs, source.numPairs);
+
+            System.arraycopy(source.values, 0, target.values, target.numPairs, source.numPairs);
+
+            if (this.multiValue) {
+                System.arraycopy(source.postings, 0, target.postings, target.numPairs, source.numPairs);
+            }
+
+            target.numPairs += source.numPairs;
+
+            target.rightSibling = source.rightSibling;
+
+            if (target.rightSibling != null) {
+                target.rightSibling.leftSibling = target;
+            }
+
+            parent.removeKeyAndPointer(keyIndex, keyIndex + 1);
+
+            handleDeficiency(parent);
+
+        }
+
+    }
+
+    /**
+     * 
+     * This method repairs an InternalNode after it lost a child pointer. The
+     * 
+     * root only needs at least two children; if it is left with one, that child
+     * 
+     * becomes the new root. Any other deficient node borrows a pointer from a
+     * 
+     * sibling under the same parent, rotating the separator key through the
+     * 
+     * parent, or merges with it and pulls the separator down.
+     * 
+     * @param in: the InternalNode that lost a child pointer
+     * 
+     */
+
+    private void handleDeficiency(InternalNode in) {
+
+        InternalNode parent = in.parent;
+
+        if (parent == null) {
+
+            if (in.degree == 1) {
+
+                // Collapse the root into its only child
+
+                Node child = in.childPointers[0];
+
+                child.parent = null;
+
+                this.root = (child instanceof InternalNode) ? (InternalNode) child : null;
+
+            }
+
+            return;
+
+        }
+
+        if (!in.isDeficient()) {
+            return;
+        }
+
+        int pointerIndex = parent.findIndexOfPointer(in);
+
+        InternalNode left = (pointerIndex > 0) ? (InternalNode) parent.childPointers[pointerIndex - 1] : null;
+
+        InternalNode right = (pointerIndex < parent.degree - 1) ? (InternalNode) parent.childPointers[pointerIndex + 1]
+                : null;
+
+        if (left != null && left.isLendable()) {
+
+            // Rotate the last child of the left sibling through the parent
+
+            System.arraycopy(in.keys, 0, in.keys, 1, in.degree - 1);
+
+            in.keys[0] = parent.keys[pointerIndex - 1];
+
+            parent.keys[pointerIndex - 1] = left.keys[left.degree - 2];
+
+            Node child = left.childPointers[left.degree - 1];
+
+            left.removePointer(left.degree - 1);
+
+            in.insertChildPointer(child, 0);
+
+            child.parent = in;
+
+        } else if (right != null && right.isLendable()) {
+
+            // Rotate the first child of the right sibling through the parent
+
+            in.keys[in.degree - 1] = parent.keys[pointerIndex];
+
+            parent.keys[pointerIndex] = right.keys[0];
+
+            Node child = right.childPointers[0];
+
+            right.removeKeyAndPointer(0, 0);
+
+            in.appendChildPointer(child);
+
+            child.parent = in;
+
+        } else {
+
+            // Merge with a sibling, pulling the separator key down between them
+
+            InternalNode target = (left != null) ? left : in;
+
+            InternalNode source = (left != null) ? in : right;
+
+            int keyIndex = (left != null) ? pointerIndex - 1 : pointerIndex;
+
+            target.keys[target.degree - 1] = parent.keys[keyIndex];
+
+            System.arraycopy(source.keys, 0, target.keys, target.degree, source.degree - 1);
+
+            for (int i = 0; i < source.degree; i++) {
+
+                source.childPointers[i].parent = target;
+
+                target.appendChildPointer(source.childPointers[i]);
+
+            }
+
+            target.rightSibling = source.rightSibling;
+
+            if (target.rightSibling != null) {
+                target.rightSibling.leftSibling = target;
+            }
+
+            parent.removeKeyAndPointer(keyIndex, keyIndex + 1);
+
+            handleDeficiency(parent);
+
+        }
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ API:RANGE ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * This method returns a cursor over the dictionary pairs whose keys lie
+     * 
+     * within [fromKey, toKey], in ascending key order. Only the leaf holding
+     * 
+     * fromKey is located through the tree; the cursor then follows the
+     * 
+     * rightSibling chain, so a scan costs O(log n + k). The cursor is lazy and
+     * 
+     * reflects the tree as it is when each pair is reached.
+     * 
+     * @param fromKey: the smallest key to be returned
+     * 
+     * @param toKey:   the largest key to be returned
+     * 
+     * @return a cursor positioned before the first pair in range
+     * 
+     */
+
+    public Cursor range(long fromKey, long toKey) {
+
+        return new Cursor(fromKey, toKey, false);
+
+    }
+
+    /**
+     * 
+     * This method returns a cursor over the dictionary pairs whose keys lie
+     * 
+     * within [fromKey, toKey], in descending key order, following the
+     * 
+     * leftSibling chain from the leaf holding toKey.
+     * 
+     * @param fromKey: the smallest key to be returned
+     * 
+     * @param toKey:   the largest key to be returned
+     * 
+     * @return a cursor positioned before the last pair in range
+     * 
+     */
+
+    public Cursor rangeDescending(long fromKey, long toKey) {
+
+        return new Cursor(fromKey, toKey, true);
+
+    }
+
+    /**
+     * 
+     * This method passes every dictionary pair whose key lies within
+     * 
+     * [fromKey, toKey] to 'consumer' in ascending key order, without boxing or
+     * 
+     * allocating per pair.
+     * 
+     * @param fromKey:  the smallest key to be visited
+     * 
+     * @param toKey:    the largest key to be visited
+     * 
+     * @param consumer: the callback receiving each key and value
+     * 
+     */
+
+    public void range(long fromKey, long toKey, EntryConsumer consumer) {
+
+        if (isEmpty() || fromKey > toKey) {
+            return;
+        }
+
+        LeafNode ln = (this.root == null) ? this.firstLeaf : findLeafNode(fromKey);
+
+        int i = binarySearch(ln.keys, ln.numPairs, fromKey);
+
+        i = (i < 0) ? -i - 1 : i;
+
+        for (; ln != null; ln = ln.rightSibling, i = 0) {
+
+            for (; i < ln.numPairs; i++) {
+
+                if (ln.keys[i] > toKey) {
+                    return;
+                }
+
+                consumer.accept(ln.keys[i], ln.values[i]);
+
+            }
+
+        }
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ API:BULK LOAD ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * Returns the positions 0..n-1 ordered by the keys at those positions,
+     * 
+     * keeping equal keys in input order, by a bottom-up merge sort.
+     * 
+     */
+
+    static int[] sortedOrder(long[] keys, int n) {
+
+        int[] order = new int[n];
+
+        int[] buffer = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+
+        for (int width = 1; width < n; width *= 2) {
+
+            for (int lo = 0; lo < n; lo += 2 * width) {
+
+                int mid = Math.min(lo + width, n), hi = Math.min(lo + 2 * width, n);
+
+                int i = lo, j = mid, k = lo;
+
+                while (i < mid && j < hi) {
+                    buffer[k++] = (keys[order[j]] < keys[order[i]]) ? order[j++] : order[i++];
+                }
+
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+
+                while (j < hi) {
+                    buffer[k++] = order[j++];
+                }
+
+            }
+
+            int[] swap = order;
+
+            order = buffer;
+
+            buffer = swap;
+
+        }
+
+        return order;
+
+    }
+
+    /**
+     * 
+     * This method builds the B+ tree bottom-up from a list of key/value pairs
+     * 
+     * in one linear pass instead of inserting them one by one. Leaves are packed
+     * 
+     * left to right up to the fill factor and chained as siblings, then every
+     * 
+     * internal level is built over the level below it until a single root
+     * 
+     * remains. The pairs are sorted first if they are not already in key order;
+     * 
+     * if a key appears more than once, its last occurrence wins, as it would
+     * 
+     * when replaying the same pairs through insert(). In multi-value mode the
+     * 
+     * values of a key are gathered into its posting list in input order instead,
+     * 
+     * as add() would.
+     * 
+     * @param keys:       the keys of the pairs to be loaded
+     * 
+     * @param values:     the values of the pairs, parallel to keys
+     * 
+     * @param n:          the number of pairs to be loaded
+     * 
+     * @param fillFactor: the fraction (0, 1] of each node to be filled
+     * 
+     */
+
+    public void bulkLoad(long[] keys, long[] values, int n, double fillFactor) {
+
+        if (!isEmpty()) {
+            throw new IllegalStateException("Bulk load requires an empty B+ tree");
+        }
+
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor must be in (0, 1]: " + fillFactor);
+        }
+
+        if (n == 0) {
+            return;
+        }
+
+        // Sort the pairs only if the input is out of order
+
+        long[] sortedKeys = keys;
+
+        long[] sortedValues = values;
+
+        boolean sorted = true;
+
+        for (int i = 1; i < n && sorted; i++) {
+
+            if (keys[i] < keys[i - 1]) {
+                sorted = false;
+            }
+
+        }
+
+        if (!sorted) {
+
+            // Sort stably, so that duplicates keep their input order
+
+            int[] order = sortedOrder(keys, n);
+
+            sortedKeys = new long[n];
+
+            sortedValues = new long[n];
+
+            for (int i = 0; i < n; i++) {
+
+                sortedKeys[i] = keys[order[i]];
+
+                sortedValues[i] = values[order[i]];
+
+            }
+
+        }
+
+        // Collapse duplicate keys, keeping the last occurrence or all of them
+
+        long[] uniqueKeys = new long[n];
+
+        long[] uniqueValues = new long[n];
+
+        PostingList[] uniquePostings = this.multiValue ? new PostingList[n] : null;
+
+        int unique = 0;
+
+        for (int i = 0; i < n; i++) {
+
+            if (unique == 0 || uniqueKeys[unique - 1] != sortedKeys[i]) {
+
+                unique++;
+
+                if (this.multiValue) {
+                    uniquePostings[unique - 1] = new PostingList();
+                }
+
+            }
+
+            uniqueKeys[unique - 1] = sortedKeys[i];
+
+            if (this.multiValue) {
+
+                uniquePostings[unique - 1].add(sortedValues[i]);
+
+                uniqueValues[unique - 1]++;
+
+            } else {
+                uniqueValues[unique - 1] = sortedValues[i];
+            }
+
+        }
+
+        // Pack the leaves and chain them together
+
+        int leafCapacity = Math.max(1, Math.min(this.m - 1, (int) Math.ceil((this.m - 1) * fillFactor)));
+
+        int numLeaves = (unique + leafCapacity - 1) / leafCapacity;
+
+        Node[] level = new Node[numLeaves];
+
+        long[] lowKeys = new long[numLeaves];
+
+        LeafNode prevLeaf = null;
+
+        int start = 0;
+
+        for (int i = 0; i < numLeaves; i++) {
+
+            // Spread the pairs evenly so that the last leaf is not left nearly empty
+
+            int size = unique / numLeaves + (i < unique % numLeaves ? 1 : 0);
+
+            long[] leafKeys = new long[this.m];
+
+            long[] leafValues = new long[this.m];
+
+            System.arraycopy(uniqueKeys, start, leafKeys, 0, size);
+
+            System.arraycopy(uniqueValues, start, leafValues, 0, size);
+
+            LeafNode ln = new LeafNode(this.m, leafKeys, leafValues, size, null);
+
+            if (this.multiValue) {
+                System.arraycopy(uniquePostings, start, ln.postings, 0, size);
+            }
+
+            if (prevLeaf != null) {
+
+                prevLeaf.rightSibling = ln;
+
+                ln.leftSibling = prevLeaf;
+
+            }
+
+            level[i] = ln;
+
+            lowKeys[i] = uniqueKeys[start];
+
+            prevLeaf = ln;
+
+            start += size;
+
+        }
+
+        this.firstLeaf = (LeafNode) level[0];
+
+        this.lastLeaf = prevLeaf;
+
+        /*
+         * Build each internal level over the one below it, using the lowest key
+         * 
+         * of every child but the first as a separator
+         */
+
+        int fanout = Math.max(Math.min(3, this.m), Math.min(this.m, (int) Math.ceil(this.m * fillFactor)));
+
+        while (level.length > 1) {
+
+            int numNodes = (level.length + fanout - 1) / fanout;
+
+            Node[] parents = new Node[numNodes];
+
+            long[] parentLowKeys = new long[numNodes];
+
+            InternalNode prevNode = null;
+
+            start = 0;
+
+            for (int i = 0; i < numNodes; i++) {
+
+                int size = level.length / numNodes + (i < level.length % numNodes ? 1 : 0);
+
+                long[] nodeKeys = new long[this.m];
+
+                Node[] pointers = new Node[this.m + 1];
+
+                for (int j = 0; j < size; j++) {
+
+                    pointers[j] = level[start + j];
+
+                    if (j > 0) {
+                        nodeKeys[j - 1] = lowKeys[start + j];
+                    }
+
+                }
+
+                InternalNode in = new InternalNode(this.m, nodeKeys, pointers);
+
+                for (int j = 0; j < size; j++) {
+                    pointers[j].parent = in;
+                }
+
+                if (prevNode != null) {
+
+                    prevNode.rightSibling = in;
+
+                    in.leftSibling = prevNode;
+
+                }
+
+                parents[i] = in;
+
+                parentLowKeys[i] = lowKeys[start];
+
+                prevNode = in;
+
+                start += size;
+
+            }
+
+            level = parents;
+
+            lowKeys = parentLowKeys;
+
+        }
+
+        // A single leaf has no root, matching the state after a first insert
+
+        this.root = (level[0] instanceof InternalNode) ? (InternalNode) level[0] : null;
+
+    }
+
+    /**
+     * 
+     * This method picks the largest order m whose LeafNode still fits within
+     * 
+     * 'nodeBytes' of heap, so that the fanout can be tuned to a page size or a
+     * 
+     * multiple of the cache line instead of being chosen by hand. A LeafNode is
+     * 
+     * the larger of the two node types: its object header and fields take about
+     * 
+     * LEAF_OVERHEAD_BYTES (assuming compressed references), and each of its m
+     * 
+     * slots takes 8 bytes of key and 8 bytes of value.
+     * 
+     * @param nodeBytes: the target size of a node in bytes
+     * 
+     * @return the order to be passed to the constructor, at least 3
+     * 
+     */
+
+    public static int orderForNodeBytes(int nodeBytes) {
+
+        return Math.max(3, (nodeBytes - LEAF_OVERHEAD_BYTES) / (8 + 8));
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     * @param m: the order (fanout) of the B+ tree
+     * 
+     */
+
+    public BPlusTree(int m) {
+
+        this(m, false);
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     * @param m:          the order (fanout) of the B+ tree
+     * 
+     * @param multiValue: whether a key maps to a posting list of values (see
+     * 
+     *                    add()) rather than to a single value
+     * 
+     */
+
+    public BPlusTree(int m, boolean multiValue) {
+
+        this.m = m;
+
+        this.multiValue = multiValue;
+
+        this.root = null;
+
+    }
+
+    /**
+     * 
+     * This method sets the largest internal node that is searched linearly
+     * 
+     * instead of by binary search; 0 binary searches every internal node.
+     * 
+     * @param maxKeys: the most keys an internal node may hold and still be
+     * 
+     *                 searched linearly
+     * 
+     */
+
+    public void setLinearSearchMaxKeys(int maxKeys) {
+
+        if (maxKeys < 0) {
+            throw new IllegalArgumentException("Linear search threshold must not be negative: " + maxKeys);
+        }
+
+        this.linearSearchMaxKeys = maxKeys;
+
+    }
+
+    /**
+     * 
+     * This method sets how full nodes are split from now on.
+     * 
+     * @param splitPolicy: the policy for later splits
+     * 
+     */
+
+    public void setSplitPolicy(SplitPolicy splitPolicy) {
+
+        this.splitPolicy = splitPolicy;
+
+    }
+
+    /**
+     * 
+     * How a full node is split. MIDPOINT splits every node in half. APPEND does
+     * 
+     * the same except at the right edge of the tree: when a key larger than all
+     * 
+     * others overflows the last leaf, the full nodes are left full and the key
+     * 
+     * starts new nodes of its own, so keys inserted in increasing order, like
+     * 
+     * sequential Emp_IDs, fill every node instead of leaving each half empty.
+     * 
+     */
+
+    public enum SplitPolicy {
+        MIDPOINT, APPEND
+    }
+
+    /**
+     * 
+     * This class holds the statistics gathered by stats(). leafFill[i] counts
+     * 
+     * the leaf nodes holding between i and i + 1 tenths of the most pairs a
+     * 
+     * leaf node can hold.
+     * 
+     */
+
+    public static class Stats {
+
+        static final int FILL_BUCKETS = 10;
+
+        public int height;
+
+        public int leafCount;
+
+        public long size;
+
+        public long leafSplits;
+
+        public long internalSplits;
+
+        public final int[] leafFill = new int[FILL_BUCKETS];
+
+    }
+
+    /**
+     * 
+     * This interface receives the key and value of each dictionary pair
+     * 
+     * visited by range(long, long, EntryConsumer).
+     * 
+     */
+
+    public interface EntryConsumer {
+
+        void accept(long key, long value);
+
+    }
+
+    /**
+     * 
+     * This class represents a forward or backward cursor over a key range of
+     * 
+     * the B+ tree. It holds its position as a leaf node and an index within it,
+     * 
+     * so advancing never allocates: call next() until it returns false and read
+     * 
+     * the current pair through key() and value().
+     * 
+     */
+
+    public class Cursor {
+
+        private final long fromKey;
+
+        private final long toKey;
+
+        private final boolean descending;
+
+        private LeafNode leaf;
+
+        private int index;
+
+        private long key;
+
+        private long value;
+
+        private PostingList postings;
+
+        /**
+         * 
+         * This method moves the cursor to the next dictionary pair in range.
+         * 
+         * @return true if the cursor is on a pair, false once the range is
+         * 
+         *         exhausted
+         * 
+         */
+
+        public boolean next() {
+
+            if (!this.descending) {
+
+                while (this.leaf != null && this.index >= this.leaf.numPairs) {
+
+                    this.leaf = this.leaf.rightSibling;
+
+                    this.index = 0;
+
+                }
+
+                if (this.leaf == null || this.leaf.keys[this.index] > this.toKey) {
+
+                    this.leaf = null;
+
+                    return false;
+
+                }
+
+            } else {
+
+                while (this.leaf != null && this.index < 0) {
+
+                    this.leaf = this.leaf.leftSibling;
+
+                    this.index = (this.leaf == null) ? -1 : this.leaf.numPairs - 1;
+
+                }
+
+                if (this.leaf == null || this.leaf.keys[this.index] < this.fromKey) {
+
+                    this.leaf = null;
+
+                    return false;
+
+                }
+
+            }
+
+            this.key = this.leaf.keys[this.index];
+
+            this.value = this.leaf.values[this.index];
+
+            this.postings = this.leaf.postingsAt(this.index);
+
+            this.index += this.descending ? -1 : 1;
+
+            return true;
+
+        }
+
+        /**
+         * 
+         * @return the key of the pair the cursor is on
+         * 
+         */
+
+        public long key() {
+
+            return this.key;
+
+        }
+
+        /**
+         * 
+         * @return the value of the pair the cursor is on
+         * 
+         */
+
+        public long value() {
+
+            return this.value;
+
+        }
+
+        /**
+         * 
+         * @return the posting list of the pair the cursor is on, in multi-value
+         * 
+         *         mode, or null
+         * 
+         */
+
+        public PostingList postings() {
+
+            return this.postings;
+
+        }
+
+        /**
+         * 
+         * Constructor
+         * 
+         * @param fromKey:    the smallest key in range
+         * 
+         * @param toKey:      the largest key in range
+         * 
+         * @param descending: whether the cursor walks from toKey down to fromKey
+         * 
+         */
+
+        private Cursor(long fromKey, long toKey, boolean descending) {
+
+            this.fromKey = fromKey;
+
+            this.toKey = toKey;
+
+            this.descending = descending;
+
+            if (isEmpty() || fromKey > toKey) {
+                return;
+            }
+
+            // Position on the first pair >= fromKey, or the last pair <= toKey
+
+            long start = descending ? toKey : fromKey;
+
+            this.leaf = (root == null) ? firstLeaf : findLeafNode(start);
+
+            int i = binarySearch(this.leaf.keys, this.leaf.numPairs, start);
+
+            if (i >= 0) {
+                this.index = i;
+            } else {
+                this.index = descending ? -i - 2 : -i - 1;
+            }
+
+        }
+
+    }
+
+    /**
+     * 
+     * This class represents a general node within the B+ tree and serves as a
+     * 
+     * superclass of InternalNode and LeafNode.
+     * 
+     */
+
+    public class Node {
+
+        InternalNode parent;
+
+    }
+
+    /**
+     * 
+     * This class represents the internal nodes within the B+ tree that traffic
+     * 
+     * all search/insert/delete operations. An internal node only holds keys; it
+     * 
+     * does not hold dictionary pairs.
+     * 
+     */
+
+    private class InternalNode extends Node {
+
+        int maxDegree;
+
+        int minDegree;
+
+        int degree;
+
+        InternalNode leftSibling;
+
+        InternalNode rightSibling;
+
+        long[] keys;
+
+        Node[] childPointers;
+
+        /**
+         * 
+         * This method appends 'pointer' to the end of the childPointers
+         * 
+         * instance variable of the InternalNode object. The pointer can point to
+         * 
+         * an InternalNode object or a LeafNode object since the formal
+         * 
+         * parameter specifies a Node object.
+         * 
+         * @param pointer: Node pointer that is to be appended to the
+         * 
+         *                 childPointers list
+         * 
+         */
+
+        private void appendChildPointer(Node pointer) {
+
+            this.childPointers[degree] = pointer;
+
+            this.degree++;
+
+        }
+
+        /**
+         * 
+         * Given a Node pointer, this method will return the index of where the
+         * 
+         * pointer lies within the childPointers instance variable. If the pointer
+         * 
+         * can't be found, the method returns -1.
+         * 
+         * @param pointer: a Node pointer that may lie within the childPointers
+         * 
+         *                 instance variable
+         * 
+         * @return the index of 'pointer' within childPointers, or -1 if
+         * 
+         *         'pointer' can't be found
+         * 
+         */
+
+        private int findIndexOfPointer(Node pointer) {
+
+            for (int i = 0; i < childPointers.length; i++) {
+
+                if (childPointers[i] == pointer) {
+                    return i;
+                }
+
+            }
 
             return -1;
 
         }
 
+        /**
+         * 
+         * This method places a new key among the degree - 1 sorted keys of the
+         * 
+         * InternalNode by binary searching for its slot and shifting the keys
+         * 
+         * after it one slot to the right. The pointer right of the key is added
+         * 
+         * separately by insertChildPointer().
+         * 
+         * @param key: the key to be inserted
+         * 
+         */
+
+        private void insertKey(long key) {
+
+            int numKeys = degree - 1;
+
+            int index = insertionPoint(keys, numKeys, key);
+
+            System.arraycopy(keys, index, keys, index + 1, numKeys - index);
+
+            keys[index] = key;
+
+        }
+
         /**
          * 
          * Given a pointer to a Node object and an integer index, this method
@@ -785,11 +2083,7 @@ public class BPlusTree {
 
         private void insertChildPointer(Node pointer, int index) {
 
-            for (int i = degree - 1; i >= index; i--) {
-
-                childPointers[i + 1] = childPointers[i];
-
-            }
+            System.arraycopy(childPointers, index, childPointers, index + 1, degree - index);
 
             this.childPointers[index] = pointer;
 
@@ -833,6 +2127,63 @@ public class BPlusTree {
 
         }
 
+        /**
+         * 
+         * This method removes the key at 'keyIndex' and the child pointer at
+         * 
+         * 'pointerIndex', shifting the keys and pointers after them one slot to
+         * 
+         * the left. The last pointer slot is then cleared via removePointer().
+         * 
+         * @param keyIndex:     the location within keys to be removed
+         * 
+         * @param pointerIndex: the location within childPointers to be removed
+         * 
+         */
+
+        private void removeKeyAndPointer(int keyIndex, int pointerIndex) {
+
+            System.arraycopy(this.keys, keyIndex + 1, this.keys, keyIndex, this.degree - 2 - keyIndex);
+
+            System.arraycopy(this.childPointers, pointerIndex + 1, this.childPointers, pointerIndex,
+                    this.degree - 1 - pointerIndex);
+
+            removePointer(this.degree - 1);
+
+        }
+
+        /**
+         * 
+         * This simple method determines if the InternalNode is deficient, i.e.
+         * 
+         * its degree has dropped below the minimum after a deletion.
+         * 
+         * @return a boolean indicating if the InternalNode is deficient
+         * 
+         */
+
+        private boolean isDeficient() {
+
+            return this.degree < this.minDegree;
+
+        }
+
+        /**
+         * 
+         * This simple method determines if the InternalNode can lend a child
+         * 
+         * pointer to a deficient sibling without becoming deficient itself.
+         * 
+         * @return a boolean indicating if the InternalNode is lendable
+         * 
+         */
+
+        private boolean isLendable() {
+
+            return this.degree > this.minDegree;
+
+        }
+
         /**
          * 
          * Constructor
@@ -843,10 +2194,12 @@ public class BPlusTree {
          * 
          */
 
-        private InternalNode(int m, Integer[] keys) {
+        private InternalNode(int m, long[] keys) {
 
             this.maxDegree = m;
 
+            this.minDegree = (int) Math.ceil(m / 2.0);
+
             this.degree = 0;
 
             this.keys = keys;
@@ -867,10 +2220,12 @@ public class BPlusTree {
          * 
          */
 
-        private InternalNode(int m, Integer[] keys, Node[] pointers) {
+        private InternalNode(int m, long[] keys, Node[] pointers) {
 
             this.maxDegree = m;
 
+            this.minDegree = (int) Math.ceil(m / 2.0);
+
             this.degree = linearNullSearch(pointers);
 
             this.keys = keys;
@@ -906,7 +2261,19 @@ public class BPlusTree {
 
         LeafNode rightSibling;
 
-        DictionaryPair[] dictionary;
+        /*
+         * Keys and values are kept in parallel primitive arrays of length m, so
+         * 
+         * that a pair costs 16 bytes and no object of its own. The last slot is
+         * 
+         * spare room for the pair that overflows the node before it is split.
+         */
+
+        long[] keys;
+
+        long[] values;
+
+        PostingList[] postings; // parallel to keys in multi-value mode, otherwise null
 
         /**
          * 
@@ -914,17 +2281,25 @@ public class BPlusTree {
          * 
          * of the LeafNode object. If it succeeds, numPairs increments, the
          * 
-         * dictionary is sorted, and the boolean true is returned. If the method
+         * dictionary is kept sorted, and the boolean true is returned. If the
          * 
-         * fails, the boolean false is returned.
+         * method fails, the boolean false is returned.
          * 
-         * @param dp: the dictionary pair to be inserted
+         * @param key:   the key of the pair to be inserted
+         * 
+         * @param value: the value of the pair to be inserted
          * 
          * @return a boolean indicating whether or not the insert was successful
          * 
          */
 
-        public boolean insert(DictionaryPair dp) {
+        public boolean insert(long key, long value) {
+
+            return insert(key, value, null);
+
+        }
+
+        private boolean insert(long key, long value, PostingList postings) {
 
             if (this.isFull()) {
 
@@ -934,25 +2309,79 @@ public class BPlusTree {
 
             } else {
 
-                // Insert dictionary pair, increment numPairs, sort dictionary
+                place(key, value, postings);
+
+                return true;
+
+            }
 
-                this.dictionary[numPairs] = dp;
+        }
 
-                numPairs++;
+        /**
+         * 
+         * This method binary searches for the slot of a dictionary pair, shifts
+         * 
+         * the pairs after it one slot to the right, and places the pair there,
+         * 
+         * incrementing numPairs. The caller must ensure that a free slot remains
+         * 
+         * in the arrays.
+         * 
+         * @param key:      the key of the pair to be placed
+         * 
+         * @param value:    the value of the pair to be placed
+         * 
+         * @param postings: the posting list of the pair in multi-value mode, or
+         * 
+         *                  null for a new empty one
+         * 
+         */
 
-                Arrays.sort(this.dictionary, 0, numPairs);
+        private void place(long key, long value, PostingList postings) {
 
-                return true;
+            int i = insertionPoint(this.keys, numPairs, key);
 
+            System.arraycopy(this.keys, i, this.keys, i + 1, numPairs - i);
+
+            System.arraycopy(this.values, i, this.values, i + 1, numPairs - i);
+
+            if (this.postings != null) {
+                System.arraycopy(this.postings, i, this.postings, i + 1, numPairs - i);
+            }
+
+            this.keys[i] = key;
+
+            this.values[i] = value;
+
+            if (this.postings != null) {
+                this.postings[i] = (postings != null) ? postings : new PostingList();
             }
 
+            numPairs++;
+
+        }
+
+        private PostingList postingsAt(int index) {
+
+            return (this.postings == null) ? null : this.postings[index];
+
         }
 
         public void delete(int index) {
 
-            // Delete dictionary pair from leaf
+            // Delete dictionary pair from leaf, shifting later pairs left
+
+            System.arraycopy(this.keys, index + 1, this.keys, index, numPairs - index - 1);
+
+            System.arraycopy(this.values, index + 1, this.values, index, numPairs - index - 1);
+
+            if (this.postings != null) {
+
+                System.arraycopy(this.postings, index + 1, this.postings, index, numPairs - index - 1);
+
+                this.postings[numPairs - 1] = null;
 
-            this.dictionary[index] = null;
+            }
 
             // Decrement numPairs
 
@@ -976,123 +2405,99 @@ public class BPlusTree {
 
         /**
          * 
-         * Constructor
-         * 
-         * @param m:  order of B+ tree that is used to calculate maxNumPairs and
+         * This simple method determines if the LeafNode is deficient, i.e. the
          * 
-         *            minNumPairs
+         * numPairs within the LeafNode has dropped below the minimum.
          * 
-         * @param dp: first dictionary pair insert into new node
+         * @return a boolean indicating whether or not the LeafNode is deficient
          * 
          */
 
-        public LeafNode(int m, DictionaryPair dp) {
-
-            this.maxNumPairs = m - 1;
-
-            this.minNumPairs = (int) (Math.ceil(m / 2) - 1);
-
-            this.dictionary = new DictionaryPair[m];
-
-            this.numPairs = 0;
+        public boolean isDeficient() {
+            return numPairs < minNumPairs;
+        }
 
-            this.insert(dp);
+        /**
+         * 
+         * This simple method determines if the LeafNode can lend a dictionary
+         * 
+         * pair to a deficient sibling without becoming deficient itself.
+         * 
+         * @return a boolean indicating whether or not the LeafNode is lendable
+         * 
+         */
 
+        public boolean isLendable() {
+            return numPairs > minNumPairs;
         }
 
         /**
          * 
          * Constructor
          * 
-         * @param dps:    list of DictionaryPair objects to be immediately inserted
+         * @param m:     order of B+ tree that is used to calculate maxNumPairs and
          * 
-         *                into new LeafNode object
+         *               minNumPairs
          * 
-         * @param m:      order of B+ tree that is used to calculate maxNumPairs and
+         * @param key:   key of the first dictionary pair inserted into new node
          * 
-         *                minNumPairs
-         * 
-         * @param parent: parent of newly created child LeafNode
+         * @param value: value of the first dictionary pair inserted into new node
          * 
          */
 
-        public LeafNode(int m, DictionaryPair[] dps, InternalNode parent) {
+        public LeafNode(int m, long key, long value) {
 
             this.maxNumPairs = m - 1;
 
-            this.minNumPairs = (int) (Math.ceil(m / 2) - 1);
-
-            this.dictionary = dps;
-
-            this.numPairs = linearNullSearch(dps);
-
-            this.parent = parent;
+            this.minNumPairs = (int) Math.ceil((m - 1) / 2.0);
 
-        }
+            this.keys = new long[m];
 
-    }
+            this.values = new long[m];
 
-    /**
-     * 
-     * This class represents a dictionary pair that is to be contained within the
-     * 
-     * leaf nodes of the B+ tree. The class implements the Comparable interface
-     * 
-     * so that the DictionaryPair objects can be sorted later on.
-     * 
-     */
+            this.postings = multiValue ? new PostingList[m] : null;
 
-    public class DictionaryPair implements Comparable<DictionaryPair> {
+            this.numPairs = 0;
 
-        int key;
+            this.insert(key, value);
 
-        long value;
+        }
 
         /**
          * 
          * Constructor
          * 
-         * @param key:   the key of the key-value pair
+         * @param m:        order of B+ tree that is used to calculate maxNumPairs
          * 
-         * @param value: the value of the key-value pair
+         *                  and minNumPairs
          * 
-         */
-
-        public DictionaryPair(int key, long value) {
-
-            this.key = key;
-
-            this.value = value;
-
-        }
-
-        /**
+         * @param keys:     sorted keys to be immediately held by new LeafNode
          * 
-         * This is a method that allows comparisons to take place between
+         *                  object, in an array of length m
          * 
-         * DictionaryPair objects in order to sort them later on
+         * @param values:   values parallel to keys, in an array of length m
          * 
-         * @param o
+         * @param numPairs: number of pairs held in keys and values
          * 
-         * @return
+         * @param parent:   parent of newly created child LeafNode
          * 
          */
 
-        @Override
+        public LeafNode(int m, long[] keys, long[] values, int numPairs, InternalNode parent) {
+
+            this.maxNumPairs = m - 1;
 
-        public int compareTo(DictionaryPair o) {
+            this.minNumPairs = (int) Math.ceil((m - 1) / 2.0);
 
-            if (key == o.key) {
-                return 0;
-            }
+            this.keys = keys;
 
-            else if (key > o.key) {
-                return 1;
-            }
+            this.values = values;
 
-            else {
-                return -1;
-            }
+            this.postings = multiValue ? new PostingList[m] : null;
+
+            this.numPairs = numPairs;
+
+            this.parent = parent;
 
         }
 
@@ -0,0 +1,425 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+
+/**
+ * Measures the tree operations that changes to BPlusTree most often affect: sequential and random
+ * inserts, point lookups that hit and miss, bulk loading, rebuilding a tree from an index log, a
+ * full scan, and Index.search() and Index.scan() end to end over a copy of the records in the
+ * working directory. Each tree benchmark runs for every combination of tree order and data size,
+ * with warmup iterations first, and reports the average time per operation.
+ *
+ * A ConcurrentBPlusTree is also searched by 1 up to N threads, to show how lookups scale with
+ * cores and how much a share of updates, which take the tree's one write lock, holds them back.
+ *
+ * Configured with system properties: bench.orders, bench.sizes and bench.threads
+ * (comma-separated), bench.warmup and bench.iterations, and bench.out, the file the results are
+ * written to as JSON in the layout JMH uses, so existing tools can compare two runs.
+ */
+public class Benchmark {
+    private static final int[] DEFAULT_ORDERS = { 16, BPlusTree.orderForNodeBytes(4096) };
+    private static final int[] DEFAULT_SIZES = { 100_000, 1_000_000 };
+    private static final long SEED = 42;
+
+    private final int warmup = Integer.getInteger("bench.warmup", 3);
+    private final int iterations = Integer.getInteger("bench.iterations", 5);
+    private final List<String> results = new ArrayList<>();
+    private static volatile long sink; // keeps results alive so the JIT can't drop the work
+
+    /**
+     * One measured operation, run over a whole data set per call and returning the number of
+     * operations it performed.
+     */
+    private interface Operation {
+        int run() throws IOException;
+    }
+
+    public static void main(String[] args) {
+        Benchmark benchmark = new Benchmark();
+        int[] orders = intList(System.getProperty("bench.orders"), DEFAULT_ORDERS);
+        int[] sizes = intList(System.getProperty("bench.sizes"), DEFAULT_SIZES);
+        try {
+            int[] threads = intList(System.getProperty("bench.threads"), defaultThreads());
+            for (int size : sizes) {
+                for (int order : orders) {
+                    benchmark.runTree(order, size);
+                    benchmark.runConcurrent(order, size, threads);
+                }
+            }
+            RecordFormat format = RecordFormat.configured();
+            boolean binary = format instanceof BinaryRecordFormat;
+            if (new File(binary ? Index.BINARY_RECORD_FILE : Index.RECORD_FILE).exists()) {
+                benchmark.runIndex(format);
+            }
+            String out = System.getProperty("bench.out", "benchmark.json");
+            benchmark.write(new File(out));
+            System.out.println("Results written to " + out);
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    private void runTree(int order, int size) throws IOException {
+        // Even keys are stored so that odd keys are guaranteed misses
+        long[] sorted = new long[size];
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = 2L * i;
+            values[i] = i;
+        }
+        long[] shuffled = shuffle(sorted);
+        long[] misses = new long[size];
+        for (int i = 0; i < size; i++) {
+            misses[i] = shuffled[i] + 1;
+        }
+        String params = "\"order\": \"" + order + "\", \"size\": \"" + size + "\"";
+
+        measure("insertSequential", params, () -> {
+            BPlusTree tree = new BPlusTree(order);
+            for (int i = 0; i < size; i++) {
+                tree.insert(sorted[i], values[i]);
+            }
+            sink += tree.size();
+            return size;
+        });
+        measure("insertRandom", params, () -> {
+            BPlusTree tree = new BPlusTree(order);
+            for (int i = 0; i < size; i++) {
+                tree.insert(shuffled[i], values[i]);
+            }
+            sink += tree.size();
+            return size;
+        });
+        measure("bulkLoad", params, () -> {
+            BPlusTree tree = new BPlusTree(order);
+            tree.bulkLoad(sorted, values, size, 1.0);
+            sink += tree.size();
+            return size;
+        });
+
+        BPlusTree tree = new BPlusTree(order);
+        tree.bulkLoad(sorted, values, size, 1.0);
+        // The same lookups with internal nodes always binary searched, and with the default cutoff
+        // below which they are scanned linearly
+        for (int linear : new int[] { 0, BPlusTree.DEFAULT_LINEAR_SEARCH_MAX_KEYS }) {
+            tree.setLinearSearchMaxKeys(linear);
+            String searchParams = params + ", \"linearSearchMaxKeys\": \"" + linear + "\"";
+            measure("searchHit", searchParams, () -> {
+                long sum = 0;
+                for (int i = 0; i < size; i++) {
+                    sum += tree.search(shuffled[i], -1);
+                }
+                sink += sum;
+                return size;
+            });
+            measure("searchMiss", searchParams, () -> {
+                long sum = 0;
+                for (int i = 0; i < size; i++) {
+                    sum += tree.search(misses[i], -1);
+                }
+                sink += sum;
+                return size;
+            });
+        }
+        measure("scan", params, () -> {
+            long sum = 0;
+            BPlusTree.Cursor cursor = tree.range(Long.MIN_VALUE, Long.MAX_VALUE);
+            while (cursor.next()) {
+                sum += cursor.value();
+            }
+            sink += sum;
+            return size;
+        });
+
+        // The index log in the form buildIndex() reads it, in the order the records were added
+        Path log = Files.createTempFile("index", ".txt");
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                lines.append(shuffled[i]).append(',').append(100L * i).append('\n');
+            }
+            Files.write(log, lines.toString().getBytes(StandardCharsets.ISO_8859_1));
+            measure("rebuild", params, () -> {
+                try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+                    IndexLogLoader loader = new IndexLogLoader(channel, new ForkJoinPool());
+                    loader.load(0, channel.size());
+                    BPlusTree rebuilt = new BPlusTree(order);
+                    rebuilt.bulkLoad(loader.keys, loader.offsets, loader.n, 0.9);
+                    sink += rebuilt.size();
+                    return loader.n;
+                }
+            });
+        } finally {
+            Files.delete(log);
+        }
+    }
+
+    /**
+     * Searches a ConcurrentBPlusTree from 1 up to N threads at once, reading only and with one
+     * update (a delete and an insert of the same key) in ten operations. Every thread count does
+     * the same total work, split evenly, so the time per operation falls as far as the tree lets
+     * the threads run in parallel. Each thread updates only its own keys, and the tree keeps the
+     * same contents throughout. B/op counts the calling thread only.
+     */
+    private void runConcurrent(int order, int size, int[] threadCounts) throws IOException {
+        long[] keys = new long[size];
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = 2L * i;
+            values[i] = i;
+        }
+        long[] shuffled = shuffle(keys);
+        ConcurrentBPlusTree tree = new ConcurrentBPlusTree(order);
+        tree.bulkLoad(keys, values, size, 1.0);
+        for (int updatePercent : new int[] { 0, 10 }) {
+            for (int threads : threadCounts) {
+                String params = "\"order\": \"" + order + "\", \"size\": \"" + size + "\", \"threads\": \""
+                        + threads + "\", \"updatePercent\": \"" + updatePercent + "\"";
+                measure("concurrentSearch", params, () -> {
+                    runThreads(threads, thread -> {
+                        long sum = 0;
+                        for (int i = thread; i < size; i += threads) {
+                            long key = shuffled[i];
+                            if (i % 100 < updatePercent) {
+                                // shuffled[i] is only ever touched by the thread that owns i
+                                tree.delete(key);
+                                tree.insert(key, key / 2);
+                            } else {
+                                sum += tree.search(key, -1);
+                            }
+                        }
+                        sink += sum;
+                    });
+                    return size;
+                });
+            }
+        }
+    }
+
+    // Runs 'body' on that many threads at once, passing each its number, and waits for them all
+    private static void runThreads(int threads, IntConsumer body) throws IOException {
+        Thread[] started = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            started[t] = new Thread(() -> body.accept(thread));
+            started[t].start();
+        }
+        try {
+            for (Thread thread : started) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    // 1, 2, 4, ... up to the number of cores, and the number of cores itself
+    private static int[] defaultThreads() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(cores);
+        return counts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Looks up every live Emp_ID, in random order, through Index.search(), and scans every record
+     * through Index.scan(). The index runs over a copy of the records and index log of the active
+     * record format, since building it writes a page file, secondary index files and the log, and
+     * the originals must be left as they are. After buildIndex() the lookups are answered by the
+     * page file, whose layout doesn't depend on the tree order, so this runs once at the configured
+     * order rather than for every one.
+     */
+    private void runIndex(RecordFormat format) throws IOException {
+        boolean binary = format instanceof BinaryRecordFormat;
+        Path directory = Files.createTempDirectory("index-bench");
+        try {
+            Path indexFile = copy(binary ? Index.BINARY_INDEX_FILE : Index.INDEX_FILE, directory);
+            copy(binary ? Index.BINARY_RECORD_FILE : Index.RECORD_FILE, directory);
+            copy(binary ? Index.BINARY_WAL_FILE : Index.WAL_FILE, directory);
+            try (Index index = new Index(Index.configuredOrder(), format, directory.toFile())) {
+                index.buildIndex();
+                if (!index.isUsable()) {
+                    return;
+                }
+                // Read after buildIndex(), which replays any entries left in the write-ahead log
+                long[] keys = liveKeys(indexFile);
+                long[] shuffled = shuffle(keys);
+                String params = "\"format\": \"" + (binary ? "binary" : "csv") + "\", \"size\": \"" + keys.length + "\"";
+                measure("indexSearch", params, () -> {
+                    long sum = 0;
+                    for (long key : shuffled) {
+                        RecordFormat.Record record = index.search(key);
+                        sum += (record == null) ? 0 : record.field(RecordFormat.EMP_ID).length();
+                    }
+                    sink += sum;
+                    return shuffled.length;
+                });
+                // Totals one field over every record, the way a report or an export reads the file
+                int[] salary = { RecordFormat.SALARY };
+                measure("indexScan", params, () -> {
+                    long[] total = { 0, 0 };
+                    index.scan(salary, null, fields -> {
+                        total[0] += fields[0].length();
+                        total[1]++;
+                    });
+                    sink += total[0];
+                    return (int) total[1];
+                });
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    // Copies 'file' into 'directory', if it exists, and returns where the copy is
+    private static Path copy(String file, Path directory) throws IOException {
+        Path source = Paths.get(file);
+        Path target = directory.resolve(source.getFileName());
+        if (Files.exists(source)) {
+            Files.copy(source, target);
+        }
+        return target;
+    }
+
+    // The Emp_IDs whose last entry in the index log isn't a tombstone
+    private static long[] liveKeys(Path indexFile) throws IOException {
+        BPlusTree latest = new BPlusTree(BPlusTree.orderForNodeBytes(4096));
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            LineReader reader = new LineReader(channel, 0, 64 * 1024);
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comma = line.indexOf(',');
+                latest.put(Long.parseLong(line.substring(0, comma)), Long.parseLong(line.substring(comma + 1)));
+            }
+        }
+        long[] keys = new long[latest.size()];
+        long[] offsets = new long[keys.length];
+        latest.copyEntries(keys, offsets);
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (offsets[i] >= 0) {
+                keys[n++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, n);
+    }
+
+    /**
+     * Runs 'operation' for the warmup iterations and then the measured ones, printing and
+     * recording the average nanoseconds per operation of each measured iteration, and the bytes
+     * allocated per operation across them (as JMH's gc.alloc.rate.norm does), so that a path meant
+     * not to allocate, such as a cursor scan, can be checked.
+     */
+    private void measure(String name, String params, Operation operation) throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+        double[] scores = new double[iterations];
+        long allocatedBefore = allocatedBytes();
+        long totalOps = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            int ops = operation.run();
+            scores[i] = (double) (System.nanoTime() - start) / Math.max(1, ops);
+            totalOps += ops;
+        }
+        double allocated = (allocatedBefore < 0) ? Double.NaN
+                : (double) (allocatedBytes() - allocatedBefore) / Math.max(1, totalOps);
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        // Half-width of the 99.9% confidence interval, approximated with the normal quantile
+        double error = (scores.length > 1) ? 3.29 * Math.sqrt(variance / (scores.length - 1) / scores.length) : 0;
+        System.out.println(String.format(Locale.ROOT, "%-18s {%s}  %12.2f +- %.2f ns/op  %10.2f B/op", name,
+                params.replace("\"", ""), mean, error, allocated));
+
+        StringBuilder raw = new StringBuilder();
+        for (int i = 0; i < scores.length; i++) {
+            raw.append((i == 0) ? "" : ", ").append(String.format(Locale.ROOT, "%.3f", scores[i]));
+        }
+        results.add(String.format(Locale.ROOT,
+                "    {\n        \"benchmark\": \"Benchmark.%s\",\n        \"mode\": \"avgt\",\n"
+                        + "        \"warmupIterations\": %d,\n        \"measurementIterations\": %d,\n"
+                        + "        \"params\": {%s},\n        \"primaryMetric\": {\n"
+                        + "            \"score\": %.3f,\n            \"scoreError\": %.3f,\n"
+                        + "            \"scoreUnit\": \"ns/op\",\n            \"rawData\": [[%s]]\n        },\n"
+                        + "        \"secondaryMetrics\": {\n            \"gc.alloc.rate.norm\": {\n"
+                        + "                \"score\": %s,\n                \"scoreUnit\": \"B/op\"\n"
+                        + "            }\n        }\n    }",
+                name, warmup, iterations, params, mean, error, raw,
+                Double.isNaN(allocated) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", allocated)));
+    }
+
+    private void write(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("[");
+            out.println(String.join(",\n", results));
+            out.println("]");
+        }
+    }
+
+    // Bytes allocated by this thread so far, or -1 if the JVM can't tell
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static long[] shuffle(long[] keys) {
+        long[] shuffled = keys.clone();
+        Random random = new Random(SEED);
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long t = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = t;
+        }
+        return shuffled;
+    }
+
+    private static int[] intList(String property, int[] defaults) {
+        if (property == null || property.trim().isEmpty()) {
+            return defaults;
+        }
+        String[] parts = property.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * A length-prefixed binary layout with an offset table, so a record is read with one positional
+ * read and any field is decoded without touching the others:
+ *
+ * [flag:1][length:2][end of each field:2 x FIELD_COUNT][field bytes]
+ *
+ * 'length' and the field ends count bytes from the start of the record. The flag is LIVE, or
+ * '#' once Index.delete() overwrites the first byte of the record.
+ */
+public class BinaryRecordFormat implements RecordFormat {
+    static final byte LIVE = 0;
+    static final int HEADER = 1 + 2 + 2 * FIELD_COUNT;
+    static final int MAX_LENGTH = 0xFFFF;
+    private static final int READ_BUFFER = 256; // most records fit, longer ones take a second read
+    private static final int SCAN_BUFFER = 64 * 1024; // at least MAX_LENGTH, so any record fits
+
+    @Override
+    public byte[] encode(String[] fields) {
+        if (fields.length != FIELD_COUNT) {
+            throw new IllegalArgumentException("Expected " + FIELD_COUNT + " fields: " + fields.length);
+        }
+        byte[][] bytes = new byte[FIELD_COUNT][];
+        int length = HEADER;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            bytes[i] = fields[i].getBytes(StandardCharsets.ISO_8859_1);
+            length += bytes[i].length;
+        }
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Record too long: " + length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(LIVE).putShort((short) length);
+        int end = HEADER;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            end += bytes[i].length;
+            buffer.putShort((short) end);
+        }
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            buffer.put(bytes[i]);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public Record read(FileChannel channel, long pos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+        readAtLeast(channel, buffer, pos, HEADER);
+        int length = buffer.getShort(1) & 0xFFFF;
+        if (length > buffer.position()) {
+            ByteBuffer record = ByteBuffer.allocate(length);
+            buffer.flip();
+            record.put(buffer);
+            readAtLeast(channel, record, pos, length);
+            buffer = record;
+        }
+        return new BinaryRecord(buffer, 0);
+    }
+
+    @Override
+    public void scan(FileChannel channel, Consumer<Record> consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER);
+        long bufferStart = 0; // file position of buffer[0]
+        int position = 0;
+        while (true) {
+            // Keep the whole next record in the buffer, refilling from its start when needed
+            if (buffer.position() - position < HEADER
+                    || buffer.position() - position < (buffer.getShort(position + 1) & 0xFFFF)) {
+                bufferStart += position;
+                buffer.limit(buffer.position()).position(position);
+                buffer.compact();
+                position = 0;
+                int read = channel.read(buffer, bufferStart + buffer.position());
+                if (read <= 0) {
+                    return;
+                }
+                continue;
+            }
+            int length = buffer.getShort(position + 1) & 0xFFFF;
+            if (buffer.get(position) == LIVE) {
+                consumer.accept(new BinaryRecord(buffer, position));
+            }
+            position += length;
+        }
+    }
+
+    @Override
+    public Record read(MappedRecordFile file, long pos) throws IOException {
+        int offset = file.offset(pos);
+        ByteBuffer segment = file.segment(pos, HEADER);
+        if (segment.limit() < offset + HEADER) {
+            throw new IOException("Truncated record at " + pos);
+        }
+        int length = segment.getShort(offset + 1) & 0xFFFF;
+        if (segment.limit() < offset + length) {
+            segment = file.segment(pos, length);
+            if (segment.limit() < offset + length) {
+                throw new IOException("Truncated record at " + pos);
+            }
+        }
+        return new BinaryRecord(segment, offset);
+    }
+
+    @Override
+    public void scan(MappedRecordFile file, Consumer<Record> consumer) throws IOException {
+        long end = file.size();
+        for (long pos = 0; pos + HEADER <= end;) {
+            int offset = file.offset(pos);
+            ByteBuffer segment = file.segment(pos, HEADER);
+            int length = segment.getShort(offset + 1) & 0xFFFF;
+            if (pos + length > end) {
+                return;
+            }
+            if (segment.limit() < offset + length) {
+                segment = file.segment(pos, length);
+            }
+            if (segment.get(offset) == LIVE) {
+                consumer.accept(new BinaryRecord(segment, offset));
+            }
+            pos += length;
+        }
+    }
+
+    // Reads from 'pos' onwards until 'buffer' holds at least 'min' bytes
+    private static void readAtLeast(FileChannel channel, ByteBuffer buffer, long pos, int min) throws IOException {
+        while (buffer.position() < min) {
+            if (channel.read(buffer, pos + buffer.position()) < 0) {
+                throw new IOException("Truncated record at " + pos);
+            }
+        }
+    }
+
+    // A record within a heap buffer or a mapped segment, which is only read with absolute gets
+    private static class BinaryRecord implements Record {
+        private final ByteBuffer buffer;
+        private final int offset; // start of the record within buffer
+
+        BinaryRecord(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        @Override
+        public String field(int index) {
+            int start = (index == 0) ? HEADER : end(index - 1);
+            int length = end(index) - start;
+            if (buffer.hasArray()) {
+                return new String(buffer.array(), buffer.arrayOffset() + offset + start, length,
+                        StandardCharsets.ISO_8859_1);
+            }
+            return new String(MappedRecordFile.bytes(buffer, offset + start, length), StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public int size() {
+            return end(FIELD_COUNT - 1);
+        }
+
+        private int end(int index) {
+            return buffer.getShort(offset + 3 + 2 * index) & 0xFFFF;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 
+ * This class represents a fixed-size cache of the pages of a read-only page
+ * 
+ * file, so that a B+ tree much larger than the memory budget can be searched
+ * 
+ * while only the pages in use, and the ones used most recently, are held.
+ * 
+ * Each frame of the pool holds one page. A caller pins a page before reading
+ * 
+ * it and unpins it once done; a pinned frame is never reused. When a page is
+ * 
+ * not cached, the CLOCK algorithm picks the frame to reuse: a hand sweeps
+ * 
+ * the frames, giving every recently used frame a second chance by clearing
+ * 
+ * its reference bit, and takes the first unpinned frame whose bit is clear.
+ * 
+ */
+
+public class BufferPool {
+
+    private final FileChannel channel;
+
+    private final int pageSize;
+
+    private final long budgetBytes;
+
+    private final ByteBuffer buffer; // frame f occupies [f * pageSize, (f + 1) * pageSize)
+
+    private final int[] frameOfPage; // -1 if the page is not cached
+
+    private final int[] pageOfFrame; // -1 if the frame is free
+
+    private final int[] pinCounts;
+
+    private final boolean[] referenced;
+
+    private int hand;
+
+    private long hits, misses, evictions;
+
+    /* ~~~~~~~~~~~~~~~~ API:PIN, UNPIN ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * This method pins a page, reading it from the file if it is not cached,
+     * 
+     * and returns where it starts within buffer(). The page stays in place
+     * 
+     * until every pin on it has been released by unpin().
+     * 
+     * @param page: the number of the page to be pinned
+     * 
+     * @return the byte offset of the page within buffer()
+     * 
+     * @throws IllegalStateException if every frame is pinned
+     * 
+     * @throws UncheckedIOException  if the page cannot be read
+     * 
+     */
+
+    public synchronized int pin(int page) {
+
+        int frame = this.frameOfPage[page];
+
+        if (frame >= 0) {
+
+            this.hits++;
+
+        } else {
+
+            this.misses++;
+
+            frame = victim();
+
+            if (this.pageOfFrame[frame] >= 0) {
+
+                this.frameOfPage[this.pageOfFrame[frame]] = -1;
+
+                this.pageOfFrame[frame] = -1;
+
+                this.evictions++;
+
+            }
+
+            read(page, frame);
+
+            this.pageOfFrame[frame] = page;
+
+            this.frameOfPage[page] = frame;
+
+        }
+
+        this.pinCounts[frame]++;
+
+        this.referenced[frame] = true;
+
+        return frame * this.pageSize;
+
+    }
+
+    /**
+     * 
+     * This method releases one pin taken by pin().
+     * 
+     * @param base: the byte offset returned by pin()
+     * 
+     */
+
+    public synchronized void unpin(int base) {
+
+        this.pinCounts[base / this.pageSize]--;
+
+    }
+
+    /**
+     * 
+     * @return the buffer holding every frame; a page pinned at 'base' occupies
+     * 
+     *         the page size bytes starting there
+     * 
+     */
+
+    public ByteBuffer buffer() {
+
+        return this.buffer;
+
+    }
+
+    /**
+     * 
+     * @return the number of frames, i.e. the most pages cached at once
+     * 
+     */
+
+    public int capacity() {
+
+        return this.pageOfFrame.length;
+
+    }
+
+    /**
+     * 
+     * @return the number of pins served from the cache
+     * 
+     */
+
+    public synchronized long hits() {
+
+        return this.hits;
+
+    }
+
+    /**
+     * 
+     * @return the number of pins that had to read the page from the file
+     * 
+     */
+
+    public synchronized long misses() {
+
+        return this.misses;
+
+    }
+
+    /**
+     * 
+     * @return the number of cached pages dropped to make room for others
+     * 
+     */
+
+    public synchronized long evictions() {
+
+        return this.evictions;
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ HELPER FUNCTIONS ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * This method advances the clock hand to the first unpinned frame whose
+     * 
+     * reference bit is clear, clearing the bits it passes over. Two full
+     * 
+     * sweeps clear every bit, so finding nothing by then means that every
+     * 
+     * frame is pinned.
+     * 
+     * @return the frame to be reused
+     * 
+     */
+
+    private int victim() {
+
+        for (int i = 0; i < 2 * this.pageOfFrame.length; i++) {
+
+            int frame = this.hand;
+
+            this.hand = (this.hand + 1) % this.pageOfFrame.length;
+
+            if (this.pinCounts[frame] > 0) {
+                continue;
+            }
+
+            if (this.pageOfFrame[frame] < 0 || !this.referenced[frame]) {
+                return frame;
+            }
+
+            this.referenced[frame] = false;
+
+        }
+
+        throw new IllegalStateException("All " + this.pageOfFrame.length + " buffer pool frames are pinned");
+
+    }
+
+    // Whether a pool with these settings may take over this pool's buffer
+
+    private synchronized boolean canLend(int pageSize, long budgetBytes, int frames) {
+
+        for (int pins : this.pinCounts) {
+            if (pins > 0) {
+                return false;
+            }
+        }
+
+        return this.pageSize == pageSize && this.budgetBytes == budgetBytes
+                && this.buffer.capacity() >= frames * pageSize;
+
+    }
+
+    private void read(int page, int frame) {
+
+        ByteBuffer target = this.buffer.duplicate();
+
+        target.limit((frame + 1) * this.pageSize).position(frame * this.pageSize);
+
+        long position = (long) page * this.pageSize;
+
+        try {
+
+            while (target.hasRemaining()) {
+
+                int read = this.channel.read(target, position + target.position() - frame * this.pageSize);
+
+                if (read < 0) {
+                    throw new IOException("Unexpected end of page file at page " + page);
+                }
+
+            }
+
+        } catch (IOException e) {
+
+            throw new UncheckedIOException(e);
+
+        }
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     * @param channel:     the page file, which must not change while the pool
+     * 
+     *                     is in use
+     * 
+     * @param pageSize:    the size of every page in bytes
+     * 
+     * @param numPages:    the number of pages in the file
+     * 
+     * @param budgetBytes: the memory to be spent on frames; at least two frames
+     * 
+     *                     are allocated, and never more than numPages or
+     * 
+     *                     than one direct buffer can hold (just under 2 GiB)
+     * 
+     */
+
+    public BufferPool(FileChannel channel, int pageSize, int numPages, long budgetBytes) {
+
+        this(channel, pageSize, numPages, budgetBytes, null);
+
+    }
+
+    /**
+     * 
+     * Constructor that takes over the frame buffer of 'previous' when it has
+     * 
+     * the same page size and budget, no pinned pages, and room for every frame,
+     * 
+     * so that replacing a page file doesn't allocate another direct buffer.
+     * 
+     * 'previous' must not be used once it has been passed here.
+     * 
+     * @param previous: the pool being replaced, or null
+     * 
+     */
+
+    BufferPool(FileChannel channel, int pageSize, int numPages, long budgetBytes, BufferPool previous) {
+
+        if (pageSize <= 0 || pageSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Page size of " + pageSize + " bytes is not between 1 and " + Integer.MAX_VALUE / 2);
+        }
+
+        // Frames share one buffer, whose capacity and offsets are ints
+
+        int maxFrames = Integer.MAX_VALUE / pageSize;
+
+        int frames = (int) Math.max(2, Math.min(Math.min(numPages, maxFrames), budgetBytes / pageSize));
+
+        this.channel = channel;
+
+        this.pageSize = pageSize;
+
+        this.budgetBytes = budgetBytes;
+
+        if (previous != null && previous.canLend(pageSize, budgetBytes, frames)) {
+            this.buffer = previous.buffer;
+        } else {
+            this.buffer = ByteBuffer.allocateDirect(frames * pageSize); // at most Integer.MAX_VALUE, see maxFrames
+        }
+
+        this.frameOfPage = new int[numPages];
+
+        this.pageOfFrame = new int[frames];
+
+        this.pinCounts = new int[frames];
+
+        this.referenced = new boolean[frames];
+
+        Arrays.fill(this.frameOfPage, -1);
+
+        Arrays.fill(this.pageOfFrame, -1);
+
+    }
+
+}
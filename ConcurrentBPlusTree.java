@@ -0,0 +1,260 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 
+ * This class is a thread-safe variant of BPlusTree. Writers (insert, delete,
+ * 
+ * bulk load) take an exclusive lock on the whole tree, since a split or merge
+ * 
+ * can reach from a leaf up to the root. Point lookups take no lock at all in
+ * 
+ * the common case: they descend optimistically under a StampedLock stamp and
+ * 
+ * then validate that no writer ran in the meantime, retrying otherwise. Readers
+ * 
+ * therefore never block each other, never write to shared memory and only
+ * 
+ * wait for writers when they keep losing the race, in which case they fall
+ * 
+ * back to a shared read lock.
+ * 
+ * All writers serialize on that one lock, so writes don't scale with cores.
+ * 
+ * Index does not use this class: its methods are synchronized as a whole,
+ * 
+ * because each change also goes through the write-ahead log and the data
+ * 
+ * files. It serves callers that share one in-memory tree between threads.
+ * 
+ */
+
+public class ConcurrentBPlusTree {
+
+    // Optimistic attempts before a reader falls back to the shared read lock
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+
+    private final BPlusTree tree;
+
+    private final StampedLock lock = new StampedLock();
+
+    /* ~~~~~~~~~~~~~~~~ API:INSERT, DELETE ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * Given a long key and a value, this method inserts a dictionary pair
+     * 
+     * into the B+ tree under the exclusive lock.
+     * 
+     * @param key:   a long key to be used in the dictionary pair
+     * 
+     * @param value: the value to be used in the dictionary pair
+     * 
+     */
+
+    public void insert(long key, long value) {
+
+        long stamp = this.lock.writeLock();
+
+        try {
+            this.tree.insert(key, value);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+
+    }
+
+    /**
+     * 
+     * Given a key, this method removes its dictionary pair from the B+ tree
+     * 
+     * under the exclusive lock.
+     * 
+     * @param key: the key of the dictionary pair to be removed
+     * 
+     * @return a boolean indicating whether the key was found and removed
+     * 
+     */
+
+    public boolean delete(long key) {
+
+        long stamp = this.lock.writeLock();
+
+        try {
+            return this.tree.delete(key);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+
+    }
+
+    /**
+     * 
+     * This method bulk loads the (empty) B+ tree under the exclusive lock; see
+     * 
+     * BPlusTree.bulkLoad().
+     * 
+     */
+
+    public void bulkLoad(long[] keys, long[] values, int n, double fillFactor) {
+
+        long stamp = this.lock.writeLock();
+
+        try {
+            this.tree.bulkLoad(keys, values, n, fillFactor);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ API:SEARCH ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * Given a key, this method returns the value associated with the key, or
+     * 
+     * 'notFound' if the key is absent. The lookup first runs without a lock
+     * 
+     * and is only trusted if the stamp still validates afterwards. A lookup
+     * 
+     * that overlaps a writer may see a node halfway through a split or merge
+     * 
+     * and fail with a runtime exception; that attempt is discarded like any
+     * 
+     * other invalidated one.
+     * 
+     * @param key:      the key to be searched within the B+ tree
+     * 
+     * @param notFound: the value to be returned when the key is absent
+     * 
+     * @return the value associated with the key, or notFound
+     * 
+     */
+
+    public long search(long key, long notFound) {
+
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+
+            long stamp = this.lock.tryOptimisticRead();
+
+            if (stamp == 0) {
+
+                // A writer holds the lock right now
+
+                Thread.onSpinWait();
+
+                continue;
+
+            }
+
+            long value;
+
+            try {
+                value = this.tree.search(key, notFound);
+            } catch (RuntimeException e) {
+                continue;
+            }
+
+            if (this.lock.validate(stamp)) {
+                return value;
+            }
+
+        }
+
+        long stamp = this.lock.readLock();
+
+        try {
+            return this.tree.search(key, notFound);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+    }
+
+    /**
+     * 
+     * Given a key, this method returns the value associated with the key, or
+     * 
+     * null if it is absent, under the shared read lock.
+     * 
+     * @param key: the key to be searched within the B+ tree
+     * 
+     * @return the value associated with the key, or null
+     * 
+     */
+
+    public Long search(long key) {
+
+        long stamp = this.lock.readLock();
+
+        try {
+            return this.tree.search(key);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+    }
+
+    /**
+     * 
+     * This method passes every dictionary pair whose key lies within
+     * 
+     * [fromKey, toKey] to 'consumer' in ascending key order. The scan holds the
+     * 
+     * shared read lock throughout, so it sees a consistent snapshot and only
+     * 
+     * blocks writers, not other readers.
+     * 
+     * @param fromKey:  the smallest key to be visited
+     * 
+     * @param toKey:    the largest key to be visited
+     * 
+     * @param consumer: the callback receiving each key and value
+     * 
+     */
+
+    public void range(long fromKey, long toKey, BPlusTree.EntryConsumer consumer) {
+
+        long stamp = this.lock.readLock();
+
+        try {
+            this.tree.range(fromKey, toKey, consumer);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+    }
+
+    /**
+     * 
+     * @return the number of dictionary pairs within the B+ tree
+     * 
+     */
+
+    public int size() {
+
+        long stamp = this.lock.readLock();
+
+        try {
+            return this.tree.size();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     * @param m: the order (fanout) of the B+ tree
+     * 
+     */
+
+    public ConcurrentBPlusTree(int m) {
+
+        this.tree = new BPlusTree(m);
+
+    }
+
+}
@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * The original layout: one comma-separated line per record, decoded as ISO-8859-1. A deleted
+ * record has its first byte overwritten with '#'.
+ */
+public class CsvRecordFormat implements RecordFormat {
+    private static final int READ_BUFFER = 256; // enough for a whole record in one read
+    private static final int SCAN_BUFFER = 64 * 1024;
+
+    @Override
+    public byte[] encode(String[] fields) {
+        return (String.join(",", fields) + "\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public Record read(FileChannel channel, long pos) throws IOException {
+        return new CsvRecord(new LineReader(channel, pos, READ_BUFFER).readLine());
+    }
+
+    @Override
+    public void scan(FileChannel channel, Consumer<Record> consumer) throws IOException {
+        LineReader reader = new LineReader(channel, 0, SCAN_BUFFER);
+        while (true) {
+            String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            consumer.accept(new CsvRecord(line));
+        }
+    }
+
+    @Override
+    public Record read(MappedRecordFile file, long pos) throws IOException {
+        return new CsvRecord(stripCarriageReturn(line(file, pos)));
+    }
+
+    @Override
+    public void scan(MappedRecordFile file, Consumer<Record> consumer) throws IOException {
+        long end = file.size();
+        for (long pos = 0; pos < end;) {
+            String line = line(file, pos);
+            pos += line.length() + 1;
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            consumer.accept(new CsvRecord(stripCarriageReturn(line)));
+        }
+    }
+
+    // The line starting at 'pos', without its newline but with any '\r' before it, so that the
+    // next line starts line.length() + 1 bytes on
+    private static String line(MappedRecordFile file, long pos) throws IOException {
+        int offset = file.offset(pos);
+        ByteBuffer segment = file.segment(pos, 1);
+        int end = newline(segment, offset);
+        if (end < 0) {
+            // The segment may have been mapped before the line was appended
+            segment = file.segment(pos, MappedRecordFile.OVERLAP);
+            end = newline(segment, offset);
+        }
+        if (end < 0) {
+            // The last line of the file has no newline, or the line is longer than OVERLAP
+            LineReader reader = new LineReader(file.channel(), pos, READ_BUFFER);
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("No record at " + pos);
+            }
+            // readLine() drops the '\r' of a "\r\n", which the bytes it consumed still count
+            return (reader.position() - pos > line.length() + 1) ? line + "\r" : line;
+        }
+        return new String(MappedRecordFile.bytes(segment, offset, end - offset), StandardCharsets.ISO_8859_1);
+    }
+
+    private static int newline(ByteBuffer segment, int from) {
+        for (int i = from; i < segment.limit(); i++) {
+            if (segment.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private static class CsvRecord implements Record {
+        private final String line;
+        private int[] starts; // where each field starts, and one past the end of the line; found on first use
+
+        CsvRecord(String line) {
+            this.line = line;
+        }
+
+        // Only the fields asked for are copied out of the line
+        @Override
+        public String field(int index) {
+            if (starts == null) {
+                int count = 1;
+                for (int i = 0; i < line.length(); i++) {
+                    if (line.charAt(i) == ',') {
+                        count++;
+                    }
+                }
+                starts = new int[count + 1];
+                for (int i = 0, n = 1; i < line.length(); i++) {
+                    if (line.charAt(i) == ',') {
+                        starts[n++] = i + 1;
+                    }
+                }
+                starts[count] = line.length() + 1;
+            }
+            return line.substring(starts[index], starts[index + 1] - 1);
+        }
+
+        @Override
+        public int size() {
+            return line.length() + 1; // one byte per char, and the newline
+        }
+    }
+}
@@ -1,14 +1,218 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.function.Predicate;
 
-public class Index {
+public class Index implements AutoCloseable {
+    private static final double FILL_FACTOR = 0.9; // leaf/internal fill used when bulk loading
     private String Emp_ID, First_Name, Last_Name, Gender, E_Mail, Fathers_Name, Mothers_Name, Date_of_Birth, Age;
     private String Date_of_Joining, Salary, SSN, Phone_No;
-    private BPlusTree bTree;
+    static final String RECORD_FILE = "./human_resource.txt";
+    static final String INDEX_FILE = "./index.txt";
+    static final String SNAPSHOT_FILE = "./index.bpt";
+    static final String WAL_FILE = "./index.wal";
+    // Offsets differ between the layouts, so the binary record file gets its own index files
+    static final String BINARY_RECORD_FILE = "./human_resource.dat";
+    static final String BINARY_INDEX_FILE = "./index_dat.txt";
+    static final String BINARY_SNAPSHOT_FILE = "./index_dat.bpt";
+    static final String BINARY_WAL_FILE = "./index_dat.wal";
+    private static final long WAL_TRUNCATE_BYTES = 4 * 1024 * 1024; // log size at which the data files are forced
+    private static final long NOT_FOUND = Long.MIN_VALUE;
+    private static final long TOMBSTONE = -1; // offset logged for a deleted Emp_ID; real offsets are never negative
+    private static final char DELETED_MARKER = '#'; // overwrites the first byte of a deleted record
+    private static final int DEFAULT_NODE_BYTES = 4096;
+    private static final int DEFAULT_RECORD_CACHE_SIZE = 1024;
+    private static final int[] ALL_FIELDS = { RecordFormat.EMP_ID, RecordFormat.FIRST_NAME, RecordFormat.LAST_NAME,
+            RecordFormat.GENDER, RecordFormat.E_MAIL, RecordFormat.FATHERS_NAME, RecordFormat.MOTHERS_NAME,
+            RecordFormat.DATE_OF_BIRTH, RecordFormat.AGE, RecordFormat.DATE_OF_JOINING, RecordFormat.SALARY,
+            RecordFormat.SSN, RecordFormat.PHONE_NO };
+    private static final int LOG_CHECKSUM_BYTES = 64 * 1024; // of the index log, see fingerprint()
+    private static final String DEFAULT_SECONDARY_FIELDS = "Last_Name,E_Mail,Salary,Date_of_Joining";
+    private BPlusTree bTree; // entries added since the page file was written
+    private PagedBPlusTree snapshot;
+    private final IndexMetrics metrics = new IndexMetrics(this, Boolean.getBoolean("index.metrics"));
+    private long retiredLeafSplits, retiredInternalSplits; // of in-memory trees replaced by checkpoint()
+    private long retiredPageHits, retiredPageMisses; // of page files replaced by checkpoint()
+    private final RecordCache recordCache = new RecordCache(
+            Integer.getInteger("record.cacheSize", DEFAULT_RECORD_CACHE_SIZE)); // records found by search()
+    private final long cacheBytes = Long.getLong("index.cacheBytes", PagedBPlusTree.DEFAULT_CACHE_BYTES); // page cache
+    private FileChannel recordChannel, indexChannel; // opened once by openFiles(), closed by close()
+    private final boolean mapRecords = Boolean.parseBoolean(System.getProperty("record.mmap", "true"));
+    private MappedRecordFile mappedRecords; // the record file mapped by openFiles(), if mapRecords
+    private long recordEnd, indexEnd; // append positions, so add() needs no size() call
+    private WriteAheadLog wal; // batches not yet known to be durable in both data files
+    private final List<WriteAheadLog.Entry> pending = new ArrayList<>(); // accepted, not yet committed
+    private final Set<Long> pendingKeys = new HashSet<>();
+    private long pendingSince; // System.nanoTime() of the oldest pending entry
+    private final int batchSize = Integer.getInteger("wal.batchSize", 1);
+    private final long lingerMillis = Long.getLong("wal.lingerMillis", 0); // 0: wait for a full batch
+    private final WriteAheadLog.FsyncMode fsyncMode = WriteAheadLog.FsyncMode
+            .valueOf(System.getProperty("wal.fsync", "LOG"));
+    private final int rebuildThreads = Integer.getInteger("index.rebuildThreads",
+            Runtime.getRuntime().availableProcessors()); // parse and sort index.txt in buildIndex()
+    private ScheduledExecutorService flusher; // commits lingering batches when lingerMillis > 0
     private Scanner scanner = new Scanner(System.in);
+    private final int order;
+    private final BPlusTree.SplitPolicy splitPolicy = BPlusTree.SplitPolicy
+            .valueOf(System.getProperty("bplustree.splitPolicy", "APPEND"));
+    private final int linearSearchMaxKeys = Integer.getInteger("bplustree.linearSearchMaxKeys",
+            BPlusTree.DEFAULT_LINEAR_SEARCH_MAX_KEYS); // internal nodes up to this size are scanned linearly
+    private final RecordFormat format;
+    private final String recordFile, indexFile, snapshotFile, walFile;
+    private final List<SecondaryIndex> secondaries = new ArrayList<>(); // see configuredSecondaries()
+    private boolean secondariesLoaded; // false until buildIndex() has loaded or rebuilt them
+    private Exception failure; // why buildIndex() failed; the index then refuses to be used
+    private boolean recovered; // set once recover() has replayed the write-ahead log
     public int recordCount = 0;
 
+    /**
+     * Creates an index whose B+ tree order comes from the "bplustree.order" system property,
+     * or is tuned to nodes of "bplustree.nodeBytes" bytes (DEFAULT_NODE_BYTES if neither is set),
+     * over records laid out as the "record.format" system property says.
+     */
+    public Index() {
+        this(configuredOrder());
+    }
+
+    public Index(int order) {
+        this(order, RecordFormat.configured());
+    }
+
+    public Index(int order, RecordFormat format) {
+        this(order, format, new File("."));
+    }
+
+    /**
+     * Creates an index over the files of 'format' in 'directory' instead of the working
+     * directory, e.g. over a copy of them that may be changed freely.
+     */
+    Index(int order, RecordFormat format, File directory) {
+        if (order < 3) {
+            throw new IllegalArgumentException("B+ tree order must be at least 3: " + order);
+        }
+        this.order = order;
+        this.format = format;
+        boolean binary = format instanceof BinaryRecordFormat;
+        this.recordFile = inDirectory(directory, binary ? BINARY_RECORD_FILE : RECORD_FILE);
+        this.indexFile = inDirectory(directory, binary ? BINARY_INDEX_FILE : INDEX_FILE);
+        this.snapshotFile = inDirectory(directory, binary ? BINARY_SNAPSHOT_FILE : SNAPSHOT_FILE);
+        this.walFile = inDirectory(directory, binary ? BINARY_WAL_FILE : WAL_FILE);
+        configuredSecondaries();
+        metrics.register(indexFile);
+    }
+
+    /**
+     * Adds a secondary index for every field named in the comma-separated "index.secondary" system
+     * property; dates and numbers are indexed by value, every other field as a string.
+     */
+    private void configuredSecondaries() {
+        String names = System.getProperty("index.secondary", DEFAULT_SECONDARY_FIELDS);
+        for (String name : names.split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            int field = RecordFormat.fieldIndex(name.trim());
+            if (field < 0) {
+                throw new IllegalArgumentException("Unknown field: " + name);
+            }
+            if (field == RecordFormat.EMP_ID || secondaryIndex(field) != null) {
+                continue;
+            }
+            SecondaryIndex.KeyType type = SecondaryIndex.KeyType.STRING;
+            if (field == RecordFormat.DATE_OF_BIRTH || field == RecordFormat.DATE_OF_JOINING) {
+                type = SecondaryIndex.KeyType.DATE;
+            } else if (field == RecordFormat.AGE || field == RecordFormat.SALARY) {
+                type = SecondaryIndex.KeyType.NUMBER;
+            }
+            secondaries.add(new SecondaryIndex(field, type, order));
+        }
+    }
+
+    // Where 'file', named relative to the working directory, is kept in 'directory'
+    private static String inDirectory(File directory, String file) {
+        return new File(directory, new File(file).getName()).getPath();
+    }
+
+    /**
+     * Returns the names of the fields that have a secondary index, as "index.secondary" set them.
+     */
+    public List<String> secondaryFields() {
+        List<String> names = new ArrayList<>();
+        for (SecondaryIndex secondary : secondaries) {
+            names.add(RecordFormat.FIELD_NAMES[secondary.field]);
+        }
+        return names;
+    }
+
+    private SecondaryIndex secondaryIndex(int field) {
+        for (SecondaryIndex secondary : secondaries) {
+            if (secondary.field == field) {
+                return secondary;
+            }
+        }
+        return null;
+    }
+
+    // Kept next to the index log, e.g. ./index_last_name.idx
+    private File secondaryFile(SecondaryIndex secondary) {
+        String base = indexFile.substring(0, indexFile.lastIndexOf('.'));
+        return new File(base + "_" + RecordFormat.FIELD_NAMES[secondary.field].toLowerCase() + ".idx");
+    }
+
+    /**
+     * Returns a CRC32 of the identity of the record file and of the last LOG_CHECKSUM_BYTES of the
+     * index log before 'logLength'. It changes when either file is replaced, e.g. by
+     * RecordConverter, even by one of the same length.
+     */
+    private long fingerprint(long logLength) throws IOException {
+        long start = Math.max(0, logLength - LOG_CHECKSUM_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (logLength - start));
+        while (buffer.hasRemaining()) {
+            if (indexChannel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Index log is shorter than " + logLength + " bytes");
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array());
+        // The device and inode, where the platform has them; a converted file is moved into place
+        // and so gets new ones
+        Object fileKey = Files.readAttributes(Paths.get(recordFile), BasicFileAttributes.class).fileKey();
+        if (fileKey != null) {
+            crc.update(fileKey.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return crc.getValue();
+    }
+
+    static int configuredOrder() {
+        Integer order = Integer.getInteger("bplustree.order");
+        if (order != null) {
+            return order;
+        }
+        return BPlusTree.orderForNodeBytes(Integer.getInteger("bplustree.nodeBytes", DEFAULT_NODE_BYTES));
+    }
+
     public void getData() {
         System.out.println("Enter the Emp_ID: ");
         Emp_ID = scanner.nextLine();
@@ -41,73 +245,175 @@ public class Index {
 
     }
 
-    public void add() {
-
-        String data = Emp_ID + "," + First_Name + "," + Last_Name + "," + Gender + "," + E_Mail + "," + Fathers_Name
-                + "," + Mothers_Name + "," + Date_of_Birth + "," + Age + "," + Date_of_Joining + "," + Salary + ","
-                + SSN + "," + Phone_No;
+    /**
+     * Queues the record read by getData() and commits the queue through the write-ahead log once
+     * it holds "wal.batchSize" records, or has waited "wal.lingerMillis" for more. The record is
+     * only reported as added once its batch is committed; until then it is reported as queued,
+     * and a crash loses it.
+     */
+    public synchronized void add() {
+        add(new String[] { Emp_ID, First_Name, Last_Name, Gender, E_Mail, Fathers_Name, Mothers_Name, Date_of_Birth,
+                Age, Date_of_Joining, Salary, SSN, Phone_No });
+    }
 
+    // add() for a record given field by field, e.g. by SelfCheck
+    synchronized void add(String[] fields) {
+        String Emp_ID = fields[RecordFormat.EMP_ID];
+        // Reject the record before it is logged: a logged entry that can't be applied would fail
+        // again on every recover(), and the index could never be opened
+        long key;
         try {
-            RandomAccessFile recordFile = new RandomAccessFile("./human_resource.txt", "rw");
-            recordFile.seek(recordFile.length());
-            long pos = recordFile.getFilePointer();
-            recordFile.writeBytes(data + "\n");
-            recordFile.close();
-
-            if (bTree == null) {
-                bTree = new BPlusTree(3);
+            key = Long.parseLong(Emp_ID);
+            for (String field : fields) {
+                if (field.indexOf(',') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                    throw new IllegalArgumentException("Fields must not contain commas or line breaks");
+                }
             }
-            if (bTree.search(Integer.valueOf(Emp_ID)) != null) {
+            format.encode(fields);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid record: " + e.getMessage());
+            return;
+        }
+        String data = String.join(",", fields);
+
+        long start = metrics.start();
+        try {
+            openFiles();
+            if (lookup(key) != NOT_FOUND || pendingKeys.contains(key)) {
                 System.out.println("Key already exists");
                 return;
             }
-            bTree.insert(Integer.valueOf(Emp_ID), pos);
-            RandomAccessFile indexFile = new RandomAccessFile("./index.txt", "rw");
-            indexFile.seek(indexFile.length());
-            indexFile.writeBytes(Emp_ID + "," + pos + "\n");
-            indexFile.close();
-            System.out.println("Record added successfully");
-            recordCount++;
+            if (pending.isEmpty()) {
+                pendingSince = System.nanoTime();
+            }
+            pending.add(new WriteAheadLog.Entry(WriteAheadLog.INSERT, data));
+            pendingKeys.add(key);
+            if (pending.size() >= batchSize || (lingerMillis > 0 && lingerExpired())) {
+                commit();
+                System.out.println("Record added successfully");
+            } else {
+                System.out.println("Record queued; it is saved with the next batch");
+            }
         } catch (IOException e) {
             System.out.println(e);
+        } finally {
+            metrics.record(metrics.add, start);
         }
 
     }
 
-    public void search() {
+    public synchronized void search() {
         System.out.println("Enter the Emp_ID: ");
         String Emp_ID = scanner.next();
-        Long pos = bTree.search(Integer.valueOf(Emp_ID));
-        if (pos == null) {
-            System.out.println("Record not found");
-        } else {
-            try {
-                RandomAccessFile recordFile = new RandomAccessFile("./human_resource.txt", "r");
-                recordFile.seek(pos);
-                String data = recordFile.readLine();
-                unPack(data);
-                recordFile.close();
-            } catch (IOException e) {
-                System.out.println(e);
+        try {
+            RecordFormat.Record record = search(Long.parseLong(Emp_ID));
+            if (record == null) {
+                System.out.println("Record not found");
+            } else {
+                unPack(record);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid Emp_ID: " + Emp_ID);
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Returns the record with the given Emp_ID, or null if there is none.
+     */
+    public synchronized RecordFormat.Record search(long key) throws IOException {
+        requireUsable();
+        long start = metrics.start();
+        flush();
+        long pos = lookup(key);
+        if (pos == NOT_FOUND) {
+            metrics.record(metrics.search, start);
+            return null;
+        }
+        RecordFormat.Record record = recordCache.get(pos);
+        if (record == null) {
+            openFiles();
+            record = readRecord(pos);
+            recordCache.put(pos, record);
+        }
+        metrics.record(metrics.search, start);
+        return record;
+    }
+
+    public synchronized void delete() {
+        System.out.println("Enter the Emp_ID: ");
+        delete(scanner.next());
+    }
+
+    synchronized void delete(String Emp_ID) {
+        // Checked as add() checks it, so a mistyped ID is reported rather than ending the menu
+        long key;
+        try {
+            key = Long.parseLong(Emp_ID);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid Emp_ID: " + Emp_ID);
+            return;
+        }
+        long start = metrics.start();
+        try {
+            openFiles();
+            commit();
+            long pos = lookup(key);
+            if (pos == NOT_FOUND) {
+                System.out.println("Record not found");
+                return;
             }
+            pending.add(new WriteAheadLog.Entry(WriteAheadLog.DELETE, Emp_ID + "," + pos));
+            commit();
+            System.out.println("Record deleted successfully");
+        } catch (IOException e) {
+            System.out.println(e);
+        } finally {
+            metrics.record(metrics.delete, start);
         }
     }
 
-    public void unPack(String line) {
-        String[] data = line.split(",");
-        Emp_ID = data[0];
-        First_Name = data[1];
-        Last_Name = data[2];
-        Gender = data[3];
-        E_Mail = data[4];
-        Fathers_Name = data[5];
-        Mothers_Name = data[6];
-        Date_of_Birth = data[7];
-        Age = data[8];
-        Date_of_Joining = data[9];
-        Salary = data[10];
-        SSN = data[11];
-        Phone_No = data[12];
+    public synchronized void searchByField() {
+        System.out.println("Enter the field to search by: ");
+        int field = RecordFormat.fieldIndex(scanner.next());
+        System.out.println("Enter the lowest value: ");
+        String from = scanner.next();
+        System.out.println("Enter the highest value (- for the same value): ");
+        String to = scanner.next();
+        if (to.equals("-")) {
+            to = from;
+        }
+        if (field < 0 || secondaryIndex(field) == null) {
+            System.out.println("That field is not indexed");
+            return;
+        }
+        try {
+            int[] found = { 0 };
+            find(field, from, to, record -> {
+                unPack(record);
+                found[0]++;
+            });
+            System.out.println(found[0] + " records found");
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    public void unPack(RecordFormat.Record record) {
+        Emp_ID = record.field(RecordFormat.EMP_ID);
+        First_Name = record.field(RecordFormat.FIRST_NAME);
+        Last_Name = record.field(RecordFormat.LAST_NAME);
+        Gender = record.field(RecordFormat.GENDER);
+        E_Mail = record.field(RecordFormat.E_MAIL);
+        Fathers_Name = record.field(RecordFormat.FATHERS_NAME);
+        Mothers_Name = record.field(RecordFormat.MOTHERS_NAME);
+        Date_of_Birth = record.field(RecordFormat.DATE_OF_BIRTH);
+        Age = record.field(RecordFormat.AGE);
+        Date_of_Joining = record.field(RecordFormat.DATE_OF_JOINING);
+        Salary = record.field(RecordFormat.SALARY);
+        SSN = record.field(RecordFormat.SSN);
+        Phone_No = record.field(RecordFormat.PHONE_NO);
 
         System.out.println("Emp_ID: " + Emp_ID);
         System.out.println("First_Name: " + First_Name);
@@ -126,45 +432,542 @@ public class Index {
 
     }
 
-    public void display() {
+    public synchronized void display() {
         try {
-            RandomAccessFile recordFile = new RandomAccessFile("./human_resource.txt", "r");
+            openFiles();
+            commit();
             System.out.println("Total records: " + recordCount);
-            while (true) {
-                long pos = recordFile.getFilePointer();
-                String data = recordFile.readLine();
-                if (data == null) {
-                    break;
+            // Buffered, as System.out flushes on every line
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024));
+            scan(ALL_FIELDS, null, fields -> {
+                for (int i = 0; i < fields.length; i++) {
+                    out.append(RecordFormat.FIELD_NAMES[i]).append(": ").append(fields[i]).append('\n');
                 }
-                unPack(data);
-            }
-            recordFile.close();
+                out.append('\n');
+            });
+            out.flush();
         } catch (IOException e) {
             System.out.println(e);
         }
     }
 
-    public void buildIndex() {
+    /**
+     * Passes the given fields of every record that has not been deleted and that 'filter' accepts
+     * (every record if it is null) to 'consumer', in file order. Only the fields that 'filter' and
+     * the projection ask for are decoded, and the array passed to 'consumer' is reused, so it is
+     * only valid during the call.
+     */
+    public synchronized void scan(int[] fields, Predicate<RecordFormat.Record> filter, Consumer<String[]> consumer)
+            throws IOException {
+        for (int field : fields) {
+            if (field < 0 || field >= RecordFormat.FIELD_COUNT) {
+                throw new IllegalArgumentException("No such field: " + field);
+            }
+        }
+        openFiles();
+        commit();
+        String[] projected = new String[fields.length];
+        Consumer<RecordFormat.Record> project = record -> {
+            if (filter == null || filter.test(record)) {
+                for (int i = 0; i < fields.length; i++) {
+                    projected[i] = record.field(fields[i]);
+                }
+                consumer.accept(projected);
+            }
+        };
+        if (mappedRecords != null) {
+            format.scan(mappedRecords, project);
+        } else {
+            format.scan(recordChannel, project);
+        }
+    }
+
+    public synchronized void buildIndex() {
+        // Start from the page file if there is one, replaying only the entries logged after it
+        long logStart = 0;
+        File pageFile = new File(snapshotFile);
+        if (pageFile.exists()) {
+            try {
+                snapshot = PagedBPlusTree.open(pageFile, cacheBytes);
+                logStart = snapshot.logLength();
+            } catch (IOException e) {
+                System.out.println(e);
+                snapshot = null;
+            }
+        }
+
         try {
-            RandomAccessFile recordFile = new RandomAccessFile("./index.txt", "r");
+            openFiles();
+            recover();
             System.out.println("Building index...");
+            if (logStart > indexEnd) {
+                // index.txt was replaced since the page file was written, so rebuild from scratch
+                snapshot.close();
+                snapshot = null;
+                logStart = 0;
+            }
+            // Parse and sort the entries on every core, then bulk load the tree in one pass
+            IndexLogLoader loader = new IndexLogLoader(indexChannel, new ForkJoinPool(rebuildThreads));
+            loader.load(logStart, indexEnd);
+            int n = loader.n;
+
+            // Later entries for the same Emp_ID win, so tombstones shadow the entries they delete
+            long began = System.nanoTime();
+            bTree = newTree();
+            bTree.bulkLoad(loader.keys, loader.offsets, n, FILL_FACTOR);
+            System.out.println(String.format(Locale.ROOT, "Read %d entries: parse %.1f ms, sort %.1f ms, "
+                    + "build %.1f ms", n, loader.parseNanos / 1e6, loader.sortNanos / 1e6, (System.nanoTime() - began) / 1e6));
+            if (snapshot == null || n > 0) {
+                checkpoint();
+            }
+            recordCount = (snapshot == null) ? 0 : (int) snapshot.size();
+            loadSecondaries();
+        } catch (IOException | RuntimeException e) {
+            // Whatever was built is partial, so it must not be searched, checkpointed or added to
+            failure = e;
+            System.out.println("Index could not be built: " + e);
+        }
+    }
+
+    /**
+     * Returns false if buildIndex() failed, in which case every operation but close() reports an
+     * error rather than serving a partial index.
+     */
+    public synchronized boolean isUsable() {
+        return failure == null;
+    }
 
-            while (true) {
-                long pos = recordFile.getFilePointer();
-                String data = recordFile.readLine();
-                if (data == null) {
-                    break;
+    private void requireUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("Index is unusable, it could not be built: " + failure, failure);
+        }
+    }
+
+    /**
+     * Loads every secondary index whose file matches the page file, and rebuilds the others
+     * from the records the page file points at in one pass over them.
+     */
+    private void loadSecondaries() throws IOException {
+        List<SecondaryIndex> stale = new ArrayList<>();
+        long fingerprint = fingerprint(snapshot.logLength());
+        for (SecondaryIndex secondary : secondaries) {
+            if (!secondary.load(secondaryFile(secondary), snapshot.logLength(), fingerprint)) {
+                stale.add(secondary);
+            }
+        }
+        if (!stale.isEmpty()) {
+            System.out.println("Building secondary indexes...");
+            rebuild(stale);
+        }
+        secondariesLoaded = true;
+    }
+
+    private void rebuild(List<SecondaryIndex> stale) throws IOException {
+        int n = (int) snapshot.size();
+        long[] keys = new long[n];
+        long[] offsets = new long[n];
+        snapshot.copyEntries(keys, offsets);
+        String[][] values = new String[stale.size()][n];
+        for (int i = 0; i < n; i++) {
+            RecordFormat.Record record = recordAt(offsets[i]);
+            for (int j = 0; j < stale.size(); j++) {
+                values[j][i] = record.field(stale.get(j).field);
+            }
+        }
+        long fingerprint = fingerprint(snapshot.logLength());
+        for (int j = 0; j < stale.size(); j++) {
+            stale.get(j).build(values[j], offsets, n);
+            stale.get(j).save(secondaryFile(stale.get(j)), snapshot.logLength(), fingerprint);
+        }
+    }
+
+    /**
+     * Passes every record whose 'field' lies within [from, to] to 'consumer', using the secondary
+     * index on that field. Dates and numbers compare by value, other fields as strings.
+     */
+    public synchronized void find(int field, String from, String to, Consumer<RecordFormat.Record> consumer)
+            throws IOException {
+        SecondaryIndex secondary = secondaryIndex(field);
+        if (secondary == null) {
+            throw new IllegalArgumentException("No secondary index on " + RecordFormat.FIELD_NAMES[field]);
+        }
+        openFiles();
+        commit();
+        for (long offset : secondary.find(from, to)) {
+            RecordFormat.Record record = readRecord(offset);
+            String value = record.field(field);
+            if (secondary.type.compare(value, from) >= 0 && secondary.type.compare(value, to) <= 0) {
+                consumer.accept(record);
+            }
+        }
+    }
+
+    /**
+     * Writes the page file and the entries added since it was last written into a new
+     * page file, then serves lookups from it with an empty in-memory tree on top. Throws
+     * IllegalStateException if buildIndex() failed, as the index is then partial.
+     */
+    public synchronized void checkpoint() {
+        if (failure != null) {
+            throw new IllegalStateException("Index is unusable, it could not be built: " + failure, failure);
+        }
+        flush();
+        int overlaySize = (bTree == null) ? 0 : bTree.size();
+        try {
+            openFiles();
+            // Nothing to do unless entries were logged since the page file, even if they cancel out
+            if (snapshot != null && overlaySize == 0 && snapshot.logLength() == indexEnd) {
+                return;
+            }
+            // The page file claims every index entry up to logLength, so they must be on disk first
+            syncData();
+            long logLength = indexEnd;
+            int snapshotSize = (snapshot == null) ? 0 : (int) snapshot.size();
+            long[] snapshotKeys = new long[snapshotSize];
+            long[] snapshotOffsets = new long[snapshotSize];
+            if (snapshot != null) {
+                snapshot.copyEntries(snapshotKeys, snapshotOffsets);
+            }
+            long[] overlayKeys = new long[overlaySize];
+            long[] overlayOffsets = new long[overlaySize];
+            if (bTree != null) {
+                bTree.copyEntries(overlayKeys, overlayOffsets);
+            }
+
+            // Merge the two sorted runs, letting the newer in-memory entry win on equal keys
+            // and dropping the entries shadowed by tombstones
+            long[] keys = new long[snapshotSize + overlaySize];
+            long[] offsets = new long[snapshotSize + overlaySize];
+            int i = 0, j = 0, n = 0;
+            while (i < snapshotSize || j < overlaySize) {
+                if (j == overlaySize || (i < snapshotSize && snapshotKeys[i] < overlayKeys[j])) {
+                    keys[n] = snapshotKeys[i];
+                    offsets[n++] = snapshotOffsets[i++];
+                } else {
+                    if (i < snapshotSize && snapshotKeys[i] == overlayKeys[j]) {
+                        i++;
+                    }
+                    if (overlayOffsets[j] != TOMBSTONE) {
+                        keys[n] = overlayKeys[j];
+                        offsets[n++] = overlayOffsets[j];
+                    }
+                    j++;
                 }
-                String[] entry = data.split(",");
-                if (bTree == null) {
-                    bTree = new BPlusTree(3);
+            }
+
+            File pageFile = new File(snapshotFile);
+            PagedBPlusTree.write(pageFile, keys, offsets, n, logLength);
+            metrics.wrote(pageFile.length());
+            PagedBPlusTree previous = snapshot;
+            snapshot = PagedBPlusTree.open(pageFile, cacheBytes, previous); // reuses its page buffer
+            if (previous != null) {
+                retiredPageHits += previous.bufferPool().hits();
+                retiredPageMisses += previous.bufferPool().misses();
+                previous.close();
+            }
+            if (bTree != null) {
+                retiredLeafSplits += bTree.leafSplits;
+                retiredInternalSplits += bTree.internalSplits;
+            }
+            bTree = newTree();
+            if (secondariesLoaded) {
+                long fingerprint = fingerprint(logLength);
+                for (SecondaryIndex secondary : secondaries) {
+                    secondary.save(secondaryFile(secondary), logLength, fingerprint);
                 }
-                bTree.insert(Integer.valueOf(entry[0]), Long.valueOf(entry[1]));
-                recordCount++;
             }
-            recordFile.close();
         } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Returns the counters and latency histograms of this index; they only count while
+     * "index.metrics" is set.
+     */
+    public IndexMetrics metrics() {
+        return metrics;
+    }
+
+    // The shape of the in-memory tree, with the splits of the trees it replaced, for IndexMetrics
+    synchronized BPlusTree.Stats treeStats() {
+        BPlusTree.Stats stats = (bTree == null) ? new BPlusTree.Stats() : bTree.stats();
+        stats.leafSplits += retiredLeafSplits;
+        stats.internalSplits += retiredInternalSplits;
+        return stats;
+    }
+
+    synchronized long pageFileEntries() {
+        return (snapshot == null) ? 0 : snapshot.size();
+    }
+
+    synchronized int pageFileHeight() {
+        return (snapshot == null) ? 0 : snapshot.height();
+    }
+
+    synchronized int pageFileLeaves() {
+        return (snapshot == null) ? 0 : snapshot.leafCount();
+    }
+
+    // Page cache hits and misses across every page file opened so far
+    synchronized long[] pageCacheCounts() {
+        long hits = retiredPageHits, misses = retiredPageMisses;
+        if (snapshot != null) {
+            hits += snapshot.bufferPool().hits();
+            misses += snapshot.bufferPool().misses();
+        }
+        return new long[] { hits, misses };
+    }
+
+    /**
+     * Returns the cache of records found by search(), for its hit ratio.
+     */
+    public RecordCache recordCache() {
+        return recordCache;
+    }
+
+    private RecordFormat.Record readRecord(long pos) throws IOException {
+        long start = metrics.start();
+        RecordFormat.Record record = recordAt(pos);
+        metrics.record(metrics.recordRead, start);
+        metrics.read(record.size());
+        return record;
+    }
+
+    private RecordFormat.Record recordAt(long pos) throws IOException {
+        return (mappedRecords != null) ? format.read(mappedRecords, pos) : format.read(recordChannel, pos);
+    }
+
+    // The in-memory tree; Emp_IDs mostly arrive in increasing order, so it splits for appends
+    private BPlusTree newTree() {
+        BPlusTree tree = new BPlusTree(order);
+        tree.setSplitPolicy(splitPolicy);
+        tree.setLinearSearchMaxKeys(linearSearchMaxKeys);
+        return tree;
+    }
+
+    private long lookup(long key) {
+        long pos = (bTree == null) ? NOT_FOUND : bTree.search(key, NOT_FOUND);
+        if (pos == NOT_FOUND && snapshot != null) {
+            pos = snapshot.search(key, NOT_FOUND);
+        }
+        return (pos == TOMBSTONE) ? NOT_FOUND : pos;
+    }
+
+    /**
+     * Commits any queued records, flushes the in-memory entries into the page file and closes
+     * both data files and the write-ahead log. An index that could not be built is only closed,
+     * leaving its files as they were.
+     */
+    @Override
+    public synchronized void close() {
+        if (failure == null) {
+            checkpoint();
+        }
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher = null;
+        }
+        try {
+            if (recordChannel != null) {
+                recordChannel.close();
+                indexChannel.close();
+                wal.close();
+            }
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        metrics.unregister();
+        snapshot = null;
+        mappedRecords = null;
+        recordChannel = null;
+        indexChannel = null;
+        wal = null;
+    }
+
+    /**
+     * Logs the queued entries as one batch and then applies them to both data files and the tree.
+     * Once this returns, the batch is only lost if the log itself is lost, and a crash while
+     * applying it is repaired by recover() on the next start. Entries still queued are not in the
+     * log, so a crash loses them.
+     */
+    private void commit() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = metrics.start();
+        WriteAheadLog.Batch batch = new WriteAheadLog.Batch(recordEnd, indexEnd);
+        batch.entries.addAll(pending);
+        pending.clear();
+        pendingKeys.clear();
+        long logged = wal.size(), applied = recordEnd + indexEnd;
+        wal.append(batch);
+        apply(batch, true);
+        metrics.wrote(wal.size() - logged + recordEnd + indexEnd - applied);
+        metrics.record(metrics.commit, start);
+        if (fsyncMode == WriteAheadLog.FsyncMode.ALL || wal.size() >= WAL_TRUNCATE_BYTES) {
+            syncData();
+        }
+    }
+
+    // Commits the queued entries, for readers that must see every record add() has accepted
+    private void flush() {
+        try {
+            if (recordChannel != null) {
+                commit();
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    private boolean lingerExpired() {
+        return System.nanoTime() - pendingSince >= TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    }
+
+    // Run by the flusher thread so a partial batch never waits longer than lingerMillis
+    // An exception is reported rather than thrown, since the scheduler would drop the task for good
+    private synchronized void flushLingering() {
+        try {
+            if (!pending.isEmpty() && lingerExpired()) {
+                flush();
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Background flush failed: " + e);
+        }
+    }
+
+    /**
+     * Appends the records of a batch to the record file with one write and its index entries to
+     * the index log with another; deletes also mark their record. With 'updateTree' set, the
+     * entries are applied to the in-memory tree as well.
+     */
+    private void apply(WriteAheadLog.Batch batch, boolean updateTree) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        StringBuilder entries = new StringBuilder();
+        long pos = recordEnd;
+        for (WriteAheadLog.Entry entry : batch.entries) {
+            String id = entry.data.substring(0, entry.data.indexOf(','));
+            long key = Long.parseLong(id);
+            if (entry.type == WriteAheadLog.INSERT) {
+                String[] fields = entry.data.split(",", -1);
+                byte[] record = format.encode(fields);
+                records.write(record, 0, record.length);
+                entries.append(id).append(',').append(pos).append('\n');
+                if (updateTree) {
+                    // Replace any tombstone left by an earlier delete of the same Emp_ID
+                    bTree.delete(key);
+                    bTree.insert(key, pos);
+                    for (SecondaryIndex secondary : secondaries) {
+                        secondary.add(fields[secondary.field], pos);
+                    }
+                    recordCount++;
+                }
+                pos += record.length;
+            } else {
+                long target = Long.parseLong(entry.data.substring(id.length() + 1));
+                if (updateTree && !secondaries.isEmpty()) {
+                    RecordFormat.Record deleted = recordAt(target);
+                    for (SecondaryIndex secondary : secondaries) {
+                        secondary.remove(deleted.field(secondary.field), target);
+                    }
+                }
+                entries.append(id).append(',').append(TOMBSTONE).append('\n');
+                recordCache.remove(target);
+                recordChannel.write(ByteBuffer.wrap(new byte[] { (byte) DELETED_MARKER }), target);
+                if (updateTree) {
+                    // The page file can't be changed in place, so shadow its entry until the next checkpoint
+                    bTree.delete(key);
+                    if (snapshot != null && snapshot.search(key, NOT_FOUND) != NOT_FOUND) {
+                        bTree.insert(key, TOMBSTONE);
+                    }
+                    recordCount--;
+                }
+            }
+        }
+        recordEnd += writeFully(recordChannel, recordEnd, ByteBuffer.wrap(records.toByteArray()));
+        indexEnd += write(indexChannel, indexEnd, entries);
+    }
+
+    /**
+     * Repairs the data files after a crash: both are cut back to where the first logged batch
+     * started and every logged batch is applied again, which also drops a record whose index
+     * entry never made it to disk.
+     */
+    private void recover() throws IOException {
+        List<WriteAheadLog.Batch> batches = wal.readBatches();
+        if (!batches.isEmpty()) {
+            System.out.println("Replaying " + batches.size() + " logged batches...");
+            recordEnd = batches.get(0).recordStart;
+            indexEnd = batches.get(0).indexStart;
+            if (mappedRecords != null) {
+                mappedRecords.reset(); // nothing may stay mapped past the new end of the file
+            }
+            recordChannel.truncate(recordEnd);
+            indexChannel.truncate(indexEnd);
+            recordCache.clear();
+            for (WriteAheadLog.Batch batch : batches) {
+                apply(batch, false);
+            }
+        }
+        recovered = true;
+        syncData();
+    }
+
+    // Forces both data files to disk, after which the log has nothing left to protect. Until
+    // recover() has replayed it, the log holds batches the data files may lack, so it is kept.
+    private void syncData() throws IOException {
+        if (fsyncMode != WriteAheadLog.FsyncMode.NONE) {
+            recordChannel.force(false);
+            indexChannel.force(false);
+        }
+        if (recovered) {
+            wal.truncate();
+        }
+    }
+
+    private void openFiles() throws IOException {
+        requireUsable();
+        if (recordChannel != null) {
+            return;
+        }
+        recordChannel = FileChannel.open(Paths.get(recordFile), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        recordEnd = recordChannel.size();
+        indexEnd = indexChannel.size();
+        if (mapRecords) {
+            mappedRecords = new MappedRecordFile(recordChannel);
+        }
+        wal = new WriteAheadLog(walFile, fsyncMode);
+        if (bTree == null) {
+            bTree = newTree();
+        }
+        if (lingerMillis > 0 && flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "index-wal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushLingering, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Writes the buffered lines at 'pos' with a single positional write; returns the bytes written
+    private static int write(FileChannel channel, long pos, StringBuilder lines) throws IOException {
+        return writeFully(channel, pos, ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static int writeFully(FileChannel channel, long pos, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, pos + length - buffer.remaining());
         }
+        return length;
     }
 
 }
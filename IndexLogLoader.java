@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads the "key,offset" lines of an index log into primitive arrays sorted by key, using every
+ * core. The log is cut into byte ranges that are parsed in parallel, each into a run of pairs in
+ * file order; the runs are then sorted and merged pairwise in parallel. Sorting and merging are
+ * stable, so pairs with the same key stay in file order and BPlusTree.bulkLoad() keeps the last
+ * one, as replaying the log would.
+ */
+class IndexLogLoader {
+    private static final int MIN_CHUNK_BYTES = 1024 * 1024;
+    private static final int READ_BYTES = 64 * 1024;
+
+    // The sorted pairs, and how long each phase took in nanoseconds
+    long[] keys = new long[0];
+    long[] offsets = new long[0];
+    int n;
+    long parseNanos, sortNanos;
+
+    private final FileChannel channel;
+    private final ForkJoinPool pool;
+
+    IndexLogLoader(FileChannel channel, ForkJoinPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+    }
+
+    /**
+     * Loads the lines that start within [start, end) of the log, and shuts the pool down.
+     */
+    void load(long start, long end) throws IOException {
+        try {
+            loadRuns(start, end);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void loadRuns(long start, long end) throws IOException {
+        long began = System.nanoTime();
+        // A few chunks per thread, so that one slow chunk doesn't hold up the rest
+        long chunk = Math.max(MIN_CHUNK_BYTES, (end - start) / (4L * pool.getParallelism()) + 1);
+        List<Run> runs;
+        try {
+            runs = pool.invoke(new Parse(channel, start, end, chunk));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long parsed = System.nanoTime();
+        if (!runs.isEmpty()) {
+            Run sorted = pool.invoke(new Sort(runs, 0, runs.size()));
+            keys = sorted.keys;
+            offsets = sorted.offsets;
+            n = sorted.n;
+        }
+        parseNanos = parsed - began;
+        sortNanos = System.nanoTime() - parsed;
+    }
+
+    // A list of pairs, in file order until sorted
+    private static class Run {
+        long[] keys, offsets;
+        int n;
+
+        Run(int capacity) {
+            keys = new long[capacity];
+            offsets = new long[capacity];
+        }
+
+        void add(long key, long offset) {
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, n * 2);
+                offsets = Arrays.copyOf(offsets, n * 2);
+            }
+            keys[n] = key;
+            offsets[n++] = offset;
+        }
+    }
+
+    // Splits [start, end) in half until it's one chunk, and returns the runs of the chunks in order
+    private static class Parse extends RecursiveTask<List<Run>> {
+        private static final long serialVersionUID = 1L;
+        private final transient FileChannel channel;
+        private final long start, end, chunk;
+
+        Parse(FileChannel channel, long start, long end, long chunk) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected List<Run> compute() {
+            if (end - start <= chunk) {
+                List<Run> runs = new ArrayList<>(1);
+                try {
+                    runs.add(parse(channel, start, end));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return runs;
+            }
+            long mid = start + (end - start) / 2;
+            Parse right = new Parse(channel, mid, end, chunk);
+            right.fork();
+            List<Run> runs = new Parse(channel, start, mid, chunk).compute();
+            runs.addAll(right.join());
+            return runs;
+        }
+    }
+
+    /**
+     * Parses the lines that start within [start, end), reading past 'end' to finish the last one.
+     * A line starts at 'start' only if the byte before it is a newline; otherwise it belongs to
+     * the chunk before, so everything up to the first newline is skipped.
+     */
+    private static Run parse(FileChannel channel, long start, long end) throws IOException {
+        Run run = new Run((int) Math.max(16, (end - start) / 16));
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BYTES);
+        byte[] bytes = buffer.array();
+        long position = (start == 0) ? 0 : start - 1;
+        boolean skipping = start != 0;
+        long lineStart = position;
+        long key = 0, value = 0;
+        boolean negative = false, comma = false;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = bytes[i];
+                if (skipping) {
+                    if (b == '\n') {
+                        skipping = false;
+                        lineStart = position + i + 1;
+                        if (lineStart >= end) {
+                            return run;
+                        }
+                    }
+                } else if (b == '\n') {
+                    if (comma) {
+                        run.add(key, negative ? -value : value);
+                    }
+                    key = value = 0;
+                    negative = comma = false;
+                    lineStart = position + i + 1;
+                    if (lineStart >= end) {
+                        return run;
+                    }
+                } else if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                } else if (b == '-') {
+                    negative = true;
+                } else if (b == ',') {
+                    key = negative ? -value : value;
+                    value = 0;
+                    negative = false;
+                    comma = true;
+                } else if (b != '\r') {
+                    throw new IOException("Malformed index entry at byte " + lineStart);
+                }
+            }
+            position += read;
+        }
+        // The log ended without a newline after the last line
+        if (!skipping && comma) {
+            run.add(key, negative ? -value : value);
+        }
+        return run;
+    }
+
+    // Sorts runs[lo, hi) and merges them into one, keeping pairs with the same key in run order
+    private static class Sort extends RecursiveTask<Run> {
+        private static final long serialVersionUID = 1L;
+        private final transient List<Run> runs;
+        private final int lo, hi;
+
+        Sort(List<Run> runs, int lo, int hi) {
+            this.runs = runs;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Run compute() {
+            if (hi - lo == 1) {
+                return sort(runs.get(lo));
+            }
+            int mid = (lo + hi) >>> 1;
+            Sort right = new Sort(runs, mid, hi);
+            right.fork();
+            Run left = new Sort(runs, lo, mid).compute();
+            return merge(left, right.join());
+        }
+    }
+
+    private static Run sort(Run run) {
+        for (int i = 1; i < run.n; i++) {
+            if (run.keys[i] < run.keys[i - 1]) {
+                int[] order = BPlusTree.sortedOrder(run.keys, run.n);
+                Run sorted = new Run(run.n);
+                for (int j = 0; j < run.n; j++) {
+                    sorted.keys[j] = run.keys[order[j]];
+                    sorted.offsets[j] = run.offsets[order[j]];
+                }
+                sorted.n = run.n;
+                return sorted;
+            }
+        }
+        return run;
+    }
+
+    private static Run merge(Run a, Run b) {
+        if (b.n == 0) {
+            return a;
+        }
+        if (a.n == 0) {
+            return b;
+        }
+        Run merged = new Run(a.n + b.n);
+        int i = 0, j = 0, k = 0;
+        while (i < a.n && j < b.n) {
+            if (b.keys[j] < a.keys[i]) {
+                merged.keys[k] = b.keys[j];
+                merged.offsets[k++] = b.offsets[j++];
+            } else {
+                merged.keys[k] = a.keys[i];
+                merged.offsets[k++] = a.offsets[i++];
+            }
+        }
+        System.arraycopy(a.keys, i, merged.keys, k, a.n - i);
+        System.arraycopy(a.offsets, i, merged.offsets, k, a.n - i);
+        k += a.n - i;
+        System.arraycopy(b.keys, j, merged.keys, k, b.n - j);
+        System.arraycopy(b.offsets, j, merged.offsets, k, b.n - j);
+        merged.n = a.n + b.n;
+        return merged;
+    }
+}
@@ -0,0 +1,247 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the hot paths of an Index, along with the shape of its
+ * trees, published as an MXBean named "bplustree:type=Index,name=<index log>". Turned on with
+ * -Dindex.metrics=true; when off, the recording methods return after checking one final field
+ * and start() doesn't read the clock, so the hot paths pay next to nothing.
+ */
+public class IndexMetrics implements IndexMetricsMXBean {
+    static final long STATS_MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    final boolean enabled;
+    private final Index index;
+    final Histogram search = new Histogram();
+    final Histogram add = new Histogram();
+    final Histogram delete = new Histogram();
+    final Histogram commit = new Histogram();
+    final Histogram recordRead = new Histogram();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private ObjectName name; // set while registered
+    private BPlusTree.Stats stats; // of the overlay, as of statsTaken
+    private long statsTaken;
+
+    IndexMetrics(Index index, boolean enabled) {
+        this.index = index;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the time an operation started, to be passed to record() once it ends.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(Histogram histogram, long start) {
+        if (enabled) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    void read(long bytes) {
+        if (enabled) {
+            bytesRead.add(bytes);
+        }
+    }
+
+    void wrote(long bytes) {
+        if (enabled) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    /**
+     * Publishes the metrics through the platform MBean server, if they are enabled.
+     */
+    void register(String indexFile) {
+        if (!enabled || name != null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName("bplustree:type=Index,name=" + ObjectName.quote(indexFile));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            name = objectName;
+        } catch (JMException e) {
+            System.out.println(e);
+        }
+    }
+
+    void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            System.out.println(e);
+        }
+        name = null;
+    }
+
+    @Override
+    public Histogram getSearchLatency() {
+        return search;
+    }
+
+    @Override
+    public Histogram getAddLatency() {
+        return add;
+    }
+
+    @Override
+    public Histogram getDeleteLatency() {
+        return delete;
+    }
+
+    @Override
+    public Histogram getCommitLatency() {
+        return commit;
+    }
+
+    @Override
+    public Histogram getRecordReadLatency() {
+        return recordRead;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum() + getPageCacheMisses() * PagedBPlusTree.PAGE_SIZE;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public int getOverlayHeight() {
+        return treeStats().height;
+    }
+
+    @Override
+    public long getOverlayEntries() {
+        return treeStats().size;
+    }
+
+    @Override
+    public int[] getOverlayLeafFillHistogram() {
+        return treeStats().leafFill.clone();
+    }
+
+    @Override
+    public long getLeafSplits() {
+        return treeStats().leafSplits;
+    }
+
+    @Override
+    public long getInternalSplits() {
+        return treeStats().internalSplits;
+    }
+
+    // Walking the overlay holds the Index lock, so one walk serves every poll for a while
+    private synchronized BPlusTree.Stats treeStats() {
+        long now = System.nanoTime();
+        if (stats == null || now - statsTaken >= STATS_MAX_AGE_NANOS) {
+            stats = index.treeStats();
+            statsTaken = now;
+        }
+        return stats;
+    }
+
+    @Override
+    public int getPageFileHeight() {
+        return index.pageFileHeight();
+    }
+
+    @Override
+    public int getPageFileLeaves() {
+        return index.pageFileLeaves();
+    }
+
+    @Override
+    public long getPageFileEntries() {
+        return index.pageFileEntries();
+    }
+
+    @Override
+    public long getPageCacheHits() {
+        return index.pageCacheCounts()[0];
+    }
+
+    @Override
+    public long getPageCacheMisses() {
+        return index.pageCacheCounts()[1];
+    }
+
+    @Override
+    public double getRecordCacheHitRatio() {
+        return index.recordCache().hitRatio();
+    }
+
+    /**
+     * A latency histogram with one bucket per power of two nanoseconds, so recording is a few
+     * atomic adds and never allocates. Percentiles are reported as the upper bound of the bucket
+     * they fall in, which overstates them by less than a factor of two.
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64); // bucket b: [2^(b-1), 2^b)
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+            count.incrementAndGet();
+            sum.addAndGet(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMeanNanos() {
+            long n = count.get();
+            return (n == 0) ? 0 : sum.get() / n;
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        public long getP50Nanos() {
+            return percentile(0.50);
+        }
+
+        public long getP99Nanos() {
+            return percentile(0.99);
+        }
+
+        public long getP999Nanos() {
+            return percentile(0.999);
+        }
+
+        private long percentile(double fraction) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int b = 0; b < 64; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) {
+                    return Math.min((b == 0) ? 0 : (1L << b) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+}
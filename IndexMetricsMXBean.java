@@ -0,0 +1,46 @@
+/**
+ * The metrics of an Index as seen through JMX, e.g. in jconsole under "bplustree". Latencies are
+ * in nanoseconds; see IndexMetrics.Histogram for how precise they are.
+ */
+public interface IndexMetricsMXBean {
+    IndexMetrics.Histogram getSearchLatency();
+
+    IndexMetrics.Histogram getAddLatency();
+
+    IndexMetrics.Histogram getDeleteLatency();
+
+    IndexMetrics.Histogram getCommitLatency();
+
+    IndexMetrics.Histogram getRecordReadLatency();
+
+    // Bytes of records and index pages read from disk, and of records, index entries, logged
+    // batches and page files written to it
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    // The in-memory overlay, which holds only the entries added since the last checkpoint; read
+    // at most once a second, see IndexMetrics.STATS_MAX_AGE_NANOS
+    int getOverlayHeight();
+
+    long getOverlayEntries();
+
+    int[] getOverlayLeafFillHistogram();
+
+    long getLeafSplits();
+
+    long getInternalSplits();
+
+    // The page file, which holds every entry up to the last checkpoint
+    int getPageFileHeight();
+
+    int getPageFileLeaves();
+
+    long getPageFileEntries();
+
+    long getPageCacheHits();
+
+    long getPageCacheMisses();
+
+    double getRecordCacheHitRatio();
+}
@@ -0,0 +1,314 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 
+ * This interface maps keys of some type to byte strings whose unsigned
+ * 
+ * lexicographic order is the order of the keys, so that any key type can be
+ * 
+ * stored in a B+ tree that only compares bytes (see KeyedBPlusTree). Every
+ * 
+ * encoding is self-delimiting, which lets composite() concatenate them.
+ * 
+ * Fixed-width keys of at most 8 bytes, such as LONG and INT, never need the
+ * 
+ * byte form at all: their encoding read as a signed long (prefix()) orders the
+ * 
+ * same way, so they are stored as primitive BPlusTree keys without boxing.
+ * 
+ */
+
+public interface KeyCodec<K> {
+
+    /**
+     * 
+     * This method appends the encoding of 'key' to 'out'.
+     * 
+     */
+
+    void encode(K key, ByteArrayOutputStream out);
+
+    /**
+     * 
+     * This method decodes one key starting at the position of 'in' and leaves
+     * 
+     * the position just after it.
+     * 
+     */
+
+    K decode(ByteBuffer in);
+
+    /**
+     * 
+     * @return the length of every encoding, or -1 if encodings vary in length
+     * 
+     */
+
+    int fixedWidth();
+
+    default byte[] encode(K key) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        encode(key, out);
+
+        return out.toByteArray();
+
+    }
+
+    default K decode(byte[] bytes) {
+
+        return decode(ByteBuffer.wrap(bytes));
+
+    }
+
+    /**
+     * 
+     * This method returns the first 8 bytes of an encoding, zero-padded, as a
+     * 
+     * long whose signed order agrees with the unsigned order of the encodings:
+     * 
+     * a < b implies prefix(a) <= prefix(b), with equality only when the two
+     * 
+     * share their first 8 bytes.
+     * 
+     */
+
+    static long prefix(byte[] bytes) {
+
+        return prefix(bytes, 0);
+
+    }
+
+    /**
+     * 
+     * This method returns the 8 bytes of an encoding from 'offset' onwards,
+     * 
+     * zero-padded, ordered as prefix() is among encodings that share the bytes
+     * 
+     * before 'offset'.
+     * 
+     */
+
+    static long prefix(byte[] bytes, int offset) {
+
+        long prefix = 0;
+
+        for (int i = offset; i < offset + 8; i++) {
+            prefix = (prefix << 8) | (i < bytes.length ? bytes[i] & 0xFF : 0);
+        }
+
+        return prefix ^ Long.MIN_VALUE;
+
+    }
+
+    /**
+     * 
+     * This method compares two encodings as unsigned byte strings.
+     * 
+     */
+
+    static int compare(byte[] a, byte[] b) {
+
+        int length = Math.min(a.length, b.length);
+
+        for (int i = 0; i < length; i++) {
+
+            if (a[i] != b[i]) {
+                return (a[i] & 0xFF) - (b[i] & 0xFF);
+            }
+
+        }
+
+        return a.length - b.length;
+
+    }
+
+    // Big-endian with the sign bit flipped, so negative keys sort first
+
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+
+        @Override
+        public void encode(Long key, ByteArrayOutputStream out) {
+
+            long bits = key ^ Long.MIN_VALUE;
+
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+
+        }
+
+        @Override
+        public Long decode(ByteBuffer in) {
+
+            return in.getLong() ^ Long.MIN_VALUE;
+
+        }
+
+        @Override
+        public int fixedWidth() {
+
+            return 8;
+
+        }
+
+    };
+
+    KeyCodec<Integer> INT = new KeyCodec<Integer>() {
+
+        @Override
+        public void encode(Integer key, ByteArrayOutputStream out) {
+
+            int bits = key ^ Integer.MIN_VALUE;
+
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                out.write(bits >>> shift);
+            }
+
+        }
+
+        @Override
+        public Integer decode(ByteBuffer in) {
+
+            return in.getInt() ^ Integer.MIN_VALUE;
+
+        }
+
+        @Override
+        public int fixedWidth() {
+
+            return 4;
+
+        }
+
+    };
+
+    /*
+     * UTF-8, whose byte order is code point order, with every 0x00 escaped as
+     * 
+     * 0x00 0xFF and a 0x00 0x00 terminator, so that a string sorts before all
+     * 
+     * of its extensions even when followed by another key in a composite
+     */
+
+    KeyCodec<String> STRING = new KeyCodec<String>() {
+
+        @Override
+        public void encode(String key, ByteArrayOutputStream out) {
+
+            for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+
+                out.write(b);
+
+                if (b == 0) {
+                    out.write(0xFF);
+                }
+
+            }
+
+            out.write(0);
+
+            out.write(0);
+
+        }
+
+        @Override
+        public String decode(ByteBuffer in) {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            while (true) {
+
+                byte b = in.get();
+
+                if (b == 0 && in.get() == 0) {
+                    break;
+                }
+
+                bytes.write(b);
+
+            }
+
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+
+        }
+
+        @Override
+        public int fixedWidth() {
+
+            return -1;
+
+        }
+
+    };
+
+    /**
+     * 
+     * This method returns a codec for keys made of several parts, ordered by
+     * 
+     * the first part, then the second, and so on. A key is an Object[] holding
+     * 
+     * one value per part codec.
+     * 
+     * @param parts: the codecs of the parts, in order of significance
+     * 
+     * @return the composite codec
+     * 
+     */
+
+    @SuppressWarnings("unchecked")
+    static KeyCodec<Object[]> composite(KeyCodec<?>... parts) {
+
+        KeyCodec<Object>[] codecs = (KeyCodec<Object>[]) parts.clone();
+
+        int width = 0;
+
+        for (KeyCodec<Object> codec : codecs) {
+            width = (width < 0 || codec.fixedWidth() < 0) ? -1 : width + codec.fixedWidth();
+        }
+
+        int fixedWidth = width;
+
+        return new KeyCodec<Object[]>() {
+
+            @Override
+            public void encode(Object[] key, ByteArrayOutputStream out) {
+
+                if (key.length != codecs.length) {
+                    throw new IllegalArgumentException("Expected " + codecs.length + " key parts: " + key.length);
+                }
+
+                for (int i = 0; i < codecs.length; i++) {
+                    codecs[i].encode(key[i], out);
+                }
+
+            }
+
+            @Override
+            public Object[] decode(ByteBuffer in) {
+
+                Object[] key = new Object[codecs.length];
+
+                for (int i = 0; i < codecs.length; i++) {
+                    key[i] = codecs[i].decode(in);
+                }
+
+                return key;
+
+            }
+
+            @Override
+            public int fixedWidth() {
+
+                return fixedWidth;
+
+            }
+
+        };
+
+    }
+
+}
@@ -0,0 +1,582 @@
+import java.util.Arrays;
+
+/**
+ * 
+ * This class is a B+ tree over keys of any type that a KeyCodec can encode,
+ * 
+ * built on the primitive BPlusTree. Keys are encoded to byte strings and the
+ * 
+ * tree is keyed by the first 8 bytes of each encoding (KeyCodec.prefix()),
+ * 
+ * which are enough to order most keys. Keys that share those 8 bytes share a
+ * 
+ * bucket: a small array of full encodings, kept sorted, that the tree entry
+ * 
+ * points at. A bucket that outgrows MAX_BUCKET_KEYS is split into a level of
+ * 
+ * its own, a further B+ tree keyed by the next 8 bytes, so keys with a long
+ * 
+ * common prefix (such as composite keys led by the same field) still cost a
+ * 
+ * logarithmic number of comparisons. For a fixed-width codec of at most 8
+ * 
+ * bytes the prefix is the whole key, so no buckets are kept and values live
+ * 
+ * in the tree itself; such keys can also skip this class and the boxing of K
+ * 
+ * by using BPlusTree with the primitive key directly.
+ * 
+ * Index parses Emp_IDs as longs and does not use this class.
+ * 
+ */
+
+public class KeyedBPlusTree<K> {
+
+    static final int MAX_BUCKET_KEYS = 32;
+
+    private final KeyCodec<K> codec;
+
+    private final boolean exact; // the prefix is the whole key
+
+    private final BPlusTree tree; // prefix -> value, when exact
+
+    private final Level level; // the first 8 bytes -> bucket, otherwise
+
+    private int size;
+
+    /* ~~~~~~~~~~~~~~~~ API:INSERT, SEARCH, DELETE ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * Given a key and a value, this method inserts the pair, replacing the
+     * 
+     * value of an equal key.
+     * 
+     * @param key:   the key to be inserted
+     * 
+     * @param value: the value to be associated with the key
+     * 
+     */
+
+    public void insert(K key, long value) {
+
+        byte[] bytes = this.codec.encode(key);
+
+        boolean inserted = this.exact ? this.tree.put(KeyCodec.prefix(bytes), value) : this.level.put(bytes, value);
+
+        if (inserted) {
+            this.size++;
+        }
+
+    }
+
+    /**
+     * 
+     * Given a key, this method returns the value associated with it, or
+     * 
+     * 'notFound' if the key is absent.
+     * 
+     * @param key:      the key to be searched for
+     * 
+     * @param notFound: the value to be returned when the key is absent
+     * 
+     * @return the value associated with the key, or notFound
+     * 
+     */
+
+    public long search(K key, long notFound) {
+
+        byte[] bytes = this.codec.encode(key);
+
+        if (this.exact) {
+            return this.tree.search(KeyCodec.prefix(bytes), notFound);
+        }
+
+        return this.level.search(bytes, notFound);
+
+    }
+
+    /**
+     * 
+     * Given a key, this method removes it and its value.
+     * 
+     * @param key: the key to be removed
+     * 
+     * @return a boolean indicating whether the key was found and removed
+     * 
+     */
+
+    public boolean delete(K key) {
+
+        byte[] bytes = this.codec.encode(key);
+
+        boolean deleted = this.exact ? this.tree.delete(KeyCodec.prefix(bytes)) : this.level.remove(bytes);
+
+        if (deleted) {
+            this.size--;
+        }
+
+        return deleted;
+
+    }
+
+    /**
+     * 
+     * This method passes every pair whose key lies within [fromKey, toKey] to
+     * 
+     * 'consumer' in ascending key order.
+     * 
+     * @param fromKey:  the smallest key to be visited
+     * 
+     * @param toKey:    the largest key to be visited
+     * 
+     * @param consumer: the callback receiving each key and value
+     * 
+     */
+
+    public void range(K fromKey, K toKey, EntryConsumer<K> consumer) {
+
+        byte[] from = this.codec.encode(fromKey);
+
+        byte[] to = this.codec.encode(toKey);
+
+        if (KeyCodec.compare(from, to) > 0) {
+            return;
+        }
+
+        if (!this.exact) {
+
+            this.level.range(from, to, (bytes, value) -> consumer.accept(this.codec.decode(bytes), value));
+
+            return;
+
+        }
+
+        BPlusTree.Cursor cursor = this.tree.range(KeyCodec.prefix(from), KeyCodec.prefix(to));
+
+        while (cursor.next()) {
+            consumer.accept(this.codec.decode(exactBytes(cursor.key())), cursor.value());
+        }
+
+    }
+
+    /**
+     * 
+     * @return the number of keys within the tree
+     * 
+     */
+
+    public int size() {
+
+        return this.size;
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ HELPER FUNCTIONS ~~~~~~~~~~~~~~~~ */
+
+    // Rebuilds the encoding of an exact key from its prefix
+
+    private byte[] exactBytes(long prefix) {
+
+        byte[] bytes = new byte[this.codec.fixedWidth()];
+
+        long bits = prefix ^ Long.MIN_VALUE;
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (bits >>> (56 - 8 * i));
+        }
+
+        return bytes;
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     * @param codec: the codec of the keys
+     * 
+     * @param m:     the order (fanout) of the underlying B+ tree
+     * 
+     */
+
+    public KeyedBPlusTree(KeyCodec<K> codec, int m) {
+
+        this.codec = codec;
+
+        this.exact = codec.fixedWidth() > 0 && codec.fixedWidth() <= 8;
+
+        this.tree = this.exact ? new BPlusTree(m) : null;
+
+        this.level = this.exact ? null : new Level(0, m);
+
+    }
+
+    /**
+     * 
+     * This interface is implemented by callers of range() to receive each key
+     * 
+     * and value in turn.
+     * 
+     */
+
+    public interface EntryConsumer<K> {
+
+        void accept(K key, long value);
+
+    }
+
+    // Receives each encoded key and value visited by Level.range()
+
+    private interface BytesConsumer {
+
+        void accept(byte[] key, long value);
+
+    }
+
+    /**
+     * 
+     * This class represents the keys that share their bytes before 'depth',
+     * 
+     * in a B+ tree keyed by the 8 bytes from 'depth' onwards
+     * 
+     * (KeyCodec.prefix(key, depth)) whose values are bucket slots.
+     * 
+     */
+
+    private static class Level {
+
+        final int depth;
+
+        final int m;
+
+        final BPlusTree tree; // prefix -> bucket slot
+
+        Bucket[] buckets = new Bucket[16];
+
+        int[] freeSlots = new int[16];
+
+        int numFree, numSlots;
+
+        Level(int depth, int m) {
+
+            this.depth = depth;
+
+            this.m = m;
+
+            this.tree = new BPlusTree(m);
+
+        }
+
+        long search(byte[] key, long notFound) {
+
+            long slot = this.tree.search(KeyCodec.prefix(key, this.depth), -1);
+
+            return (slot < 0) ? notFound : this.buckets[(int) slot].search(key, notFound);
+
+        }
+
+        // Returns whether the key is new
+
+        boolean put(byte[] key, long value) {
+
+            long prefix = KeyCodec.prefix(key, this.depth);
+
+            long slot = this.tree.search(prefix, -1);
+
+            if (slot < 0) {
+
+                slot = newSlot();
+
+                this.tree.insert(prefix, slot);
+
+            }
+
+            return this.buckets[(int) slot].put(key, value, this);
+
+        }
+
+        // Returns whether the key was found and removed
+
+        boolean remove(byte[] key) {
+
+            long prefix = KeyCodec.prefix(key, this.depth);
+
+            long slot = this.tree.search(prefix, -1);
+
+            if (slot < 0) {
+                return false;
+            }
+
+            Bucket bucket = this.buckets[(int) slot];
+
+            if (!bucket.remove(key)) {
+                return false;
+            }
+
+            if (bucket.size == 0) {
+
+                this.tree.delete(prefix);
+
+                freeSlot((int) slot);
+
+            }
+
+            return true;
+
+        }
+
+        // Visits the keys within [from, to] in order; a null bound is open
+
+        void range(byte[] from, byte[] to, BytesConsumer consumer) {
+
+            long fromPrefix = (from == null) ? Long.MIN_VALUE : KeyCodec.prefix(from, this.depth);
+
+            long toPrefix = (to == null) ? Long.MAX_VALUE : KeyCodec.prefix(to, this.depth);
+
+            BPlusTree.Cursor cursor = this.tree.range(fromPrefix, toPrefix);
+
+            while (cursor.next()) {
+
+                // Only the buckets at either end can hold keys outside the range
+
+                byte[] bucketFrom = (from != null && cursor.key() == fromPrefix) ? from : null;
+
+                byte[] bucketTo = (to != null && cursor.key() == toPrefix) ? to : null;
+
+                this.buckets[(int) cursor.value()].range(bucketFrom, bucketTo, consumer);
+
+            }
+
+        }
+
+        private int newSlot() {
+
+            int slot;
+
+            if (this.numFree > 0) {
+
+                slot = this.freeSlots[--this.numFree];
+
+            } else {
+
+                if (this.numSlots == this.buckets.length) {
+                    this.buckets = Arrays.copyOf(this.buckets, this.numSlots * 2);
+                }
+
+                slot = this.numSlots++;
+
+            }
+
+            this.buckets[slot] = new Bucket();
+
+            return slot;
+
+        }
+
+        private void freeSlot(int slot) {
+
+            this.buckets[slot] = null;
+
+            if (this.numFree == this.freeSlots.length) {
+                this.freeSlots = Arrays.copyOf(this.freeSlots, this.numFree * 2);
+            }
+
+            this.freeSlots[this.numFree++] = slot;
+
+        }
+
+    }
+
+    /**
+     * 
+     * This class represents the keys that share one prefix within a level,
+     * 
+     * either sorted by their full encodings with their values in a parallel
+     * 
+     * array, or, once there are more than MAX_BUCKET_KEYS of them, in a child
+     * 
+     * level keyed by the next 8 bytes.
+     * 
+     */
+
+    private static class Bucket {
+
+        byte[][] keys = new byte[2][];
+
+        long[] values = new long[2];
+
+        Level child; // non-null once the bucket has been split
+
+        int size;
+
+        int maxLength; // of the keys, while they are held in the arrays
+
+        int indexOf(byte[] key) {
+
+            int lo = 0, hi = this.size - 1;
+
+            while (lo <= hi) {
+
+                int mid = (lo + hi) >>> 1;
+
+                int cmp = KeyCodec.compare(this.keys[mid], key);
+
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+
+            }
+
+            return -(lo + 1);
+
+        }
+
+        long search(byte[] key, long notFound) {
+
+            if (this.child != null) {
+                return this.child.search(key, notFound);
+            }
+
+            int index = indexOf(key);
+
+            return (index < 0) ? notFound : this.values[index];
+
+        }
+
+        // Returns whether the key is new
+
+        boolean put(byte[] key, long value, Level level) {
+
+            if (this.child == null && this.size >= MAX_BUCKET_KEYS && indexOf(key) < 0
+                    && Math.max(this.maxLength, key.length) > level.depth + 8) {
+                split(level);
+            }
+
+            if (this.child != null) {
+
+                boolean inserted = this.child.put(key, value);
+
+                if (inserted) {
+                    this.size++;
+                }
+
+                return inserted;
+
+            }
+
+            int index = indexOf(key);
+
+            if (index >= 0) {
+
+                this.values[index] = value;
+
+                return false;
+
+            }
+
+            index = -(index + 1);
+
+            if (this.size == this.keys.length) {
+
+                this.keys = Arrays.copyOf(this.keys, this.size * 2);
+
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+
+            }
+
+            System.arraycopy(this.keys, index, this.keys, index + 1, this.size - index);
+
+            System.arraycopy(this.values, index, this.values, index + 1, this.size - index);
+
+            this.keys[index] = key;
+
+            this.values[index] = value;
+
+            this.size++;
+
+            this.maxLength = Math.max(this.maxLength, key.length);
+
+            return true;
+
+        }
+
+        // Returns whether the key was found and removed
+
+        boolean remove(byte[] key) {
+
+            if (this.child != null) {
+
+                boolean removed = this.child.remove(key);
+
+                if (removed) {
+                    this.size--;
+                }
+
+                return removed;
+
+            }
+
+            int index = indexOf(key);
+
+            if (index < 0) {
+                return false;
+            }
+
+            System.arraycopy(this.keys, index + 1, this.keys, index, this.size - index - 1);
+
+            System.arraycopy(this.values, index + 1, this.values, index, this.size - index - 1);
+
+            this.keys[--this.size] = null;
+
+            return true;
+
+        }
+
+        void range(byte[] from, byte[] to, BytesConsumer consumer) {
+
+            if (this.child != null) {
+
+                this.child.range(from, to, consumer);
+
+                return;
+
+            }
+
+            for (int i = 0; i < this.size; i++) {
+
+                byte[] key = this.keys[i];
+
+                if ((from == null || KeyCodec.compare(key, from) >= 0) && (to == null || KeyCodec.compare(key, to) <= 0)) {
+                    consumer.accept(key, this.values[i]);
+                }
+
+            }
+
+        }
+
+        // Moves the keys into a child level keyed by the 8 bytes after this bucket's prefix
+
+        private void split(Level level) {
+
+            Level child = new Level(level.depth + 8, level.m);
+
+            for (int i = 0; i < this.size; i++) {
+                child.put(this.keys[i], this.values[i]);
+            }
+
+            this.child = child;
+
+            this.keys = null;
+
+            this.values = null;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines from a channel through a reusable buffer, decoding bytes as ISO-8859-1 like
+ * RandomAccessFile.readLine() does, with positional reads so the channel can be shared.
+ */
+class LineReader {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long bufferStart; // file position of buffer[0]
+    private int position, limit; // next unread byte and end of valid bytes in buffer
+
+    LineReader(FileChannel channel, long start, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.bufferStart = start;
+    }
+
+    String readLine() throws IOException {
+        StringBuilder line = null;
+        while (true) {
+            if (position == limit && !fill()) {
+                return (line == null) ? null : line.toString();
+            }
+            byte[] bytes = buffer.array();
+            int end = position;
+            while (end < limit && bytes[end] != '\n') {
+                end++;
+            }
+            String chunk = new String(bytes, position, end - position, StandardCharsets.ISO_8859_1);
+            line = (line == null) ? new StringBuilder(chunk) : line.append(chunk);
+            position = end;
+            if (end < limit) {
+                position++; // skip the newline
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+        }
+    }
+
+    // The file position of the next byte to be read, i.e. just past the last line returned
+    long position() {
+        return bufferStart + position;
+    }
+
+    private boolean fill() throws IOException {
+        bufferStart += limit;
+        buffer.clear();
+        int read = channel.read(buffer, bufferStart);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
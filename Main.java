@@ -20,6 +20,12 @@ public class Main {
         System.out.println("BPLUSTREE INDEXING");
         Index index = new Index();
         index.buildIndex();
+        if (!index.isUsable()) {
+            index.close();
+            System.out.println("Fix or remove the damaged index files and start again");
+            return;
+        }
+        String indexed = String.join(", ", index.secondaryFields());
         Scanner scanner = new Scanner(System.in);
         while (true) {
 
@@ -30,7 +36,9 @@ public class Main {
             System.out.println("1>Enter the details: \n"
                     + "2>Enter the ID(Emp_id) to Search: \n"
                     + "3>Display All Records\n"
-                    + "4>Exit");
+                    + "4>Exit\n"
+                    + "5>Enter the ID(Emp_id) to Delete: \n"
+                    + "6>Search by field (" + (indexed.isEmpty() ? "none indexed" : indexed) + "): ");
 
             int choice = scanner.nextInt();
 
@@ -50,8 +58,17 @@ public class Main {
                     break;
                 case 4:
                     System.out.println("Exiting..");
+                    index.close();
                     System.out.println("Exited successfully");
                     return;
+                case 5:
+                    clearConsole();
+                    index.delete();
+                    break;
+                case 6:
+                    clearConsole();
+                    index.searchByField();
+                    break;
                 default:
                     System.out.println("Invalid choice");
 
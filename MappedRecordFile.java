@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The record file mapped into memory, so records are located and decoded without a read call.
+ * A single mapping can't exceed 2 GiB, so the file is mapped in segments of SEGMENT_BYTES. Each
+ * segment also maps the OVERLAP bytes after it, so a record that starts in a segment can be read
+ * from that segment alone. Segments are mapped on first use and mapped again once the file has
+ * grown past what they cover; nothing is mapped beyond the end of the file.
+ */
+class MappedRecordFile {
+    static final long SEGMENT_BYTES = 1L << 30;
+    static final int OVERLAP = 64 * 1024; // at least the longest binary record
+
+    private final FileChannel channel;
+    private final long segmentBytes;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    MappedRecordFile(FileChannel channel) {
+        this(channel, SEGMENT_BYTES);
+    }
+
+    MappedRecordFile(FileChannel channel, long segmentBytes) {
+        this.channel = channel;
+        this.segmentBytes = segmentBytes;
+    }
+
+    FileChannel channel() {
+        return channel;
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Returns the segment holding 'pos', mapped far enough to cover 'length' bytes from there, or
+     * up to the end of the file if that comes first. 'length' must not exceed OVERLAP. The buffer
+     * is shared, so it must only be read with absolute gets; 'pos' is at offset(pos) within it.
+     */
+    ByteBuffer segment(long pos, int length) throws IOException {
+        int index = (int) (pos / segmentBytes);
+        int needed = offset(pos) + length;
+        if (index >= segments.length) {
+            segments = Arrays.copyOf(segments, index + 1);
+        }
+        MappedByteBuffer segment = segments[index];
+        if (segment == null || segment.limit() < needed && segment.limit() < segmentBytes + OVERLAP) {
+            long start = index * segmentBytes;
+            long size = Math.max(0, Math.min(channel.size() - start, segmentBytes + OVERLAP));
+            if (segment == null || size > segment.limit()) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                segments[index] = segment;
+            }
+        }
+        return segment;
+    }
+
+    int offset(long pos) {
+        return (int) (pos % segmentBytes);
+    }
+
+    /**
+     * Drops every mapping, which must be done before the file is truncated.
+     */
+    void reset() {
+        segments = new MappedByteBuffer[0];
+    }
+
+    // Copies 'length' bytes from 'offset' of a mapped segment
+    static byte[] bytes(ByteBuffer segment, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = segment.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+}
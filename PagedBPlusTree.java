@@ -0,0 +1,977 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 
+ * This class represents a read-only B+ tree that is stored in fixed-size pages
+ * 
+ * within a single file and read through a BufferPool, so that a process can
+ * 
+ * answer searches right after opening the file, only reads the pages on the
+ * 
+ * path to each key, and holds no more of them in memory than its budget
+ * 
+ * allows, however large the file grows.
+ * 
+ * Page 0 holds the file header. Every other page holds either a leaf node
+ * 
+ * (sorted keys with their values, chained to the neighbouring leaves) or an
+ * 
+ * internal node (sorted separator keys with the page numbers of its children).
+ * 
+ * Keys are stored compressed. The leading bytes shared by every key of a page
+ * 
+ * are kept once in the page header, as are the trailing bytes that are zero
+ * 
+ * in all of them, and each key stores only the bytes in between, so a page of
+ * 
+ * nearby keys fits far more of them than 8 bytes per key would allow. The
+ * 
+ * separators of internal pages are the shortest keys that still tell two
+ * 
+ * children apart rather than the low key of the right child, which leaves
+ * 
+ * more trailing zero bytes to drop.
+ * 
+ */
+
+public class PagedBPlusTree implements AutoCloseable {
+
+    static final int PAGE_SIZE = 4096;
+
+    static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+    static final int MAGIC = 0x42505431; // "BPT1"
+
+    static final int VERSION = 3; // 2: 8-byte keys, 3: compressed keys
+
+    static final byte LEAF = 1;
+
+    static final byte INTERNAL = 2;
+
+    // Header page layout
+
+    static final int HEADER_MAGIC = 0;
+
+    static final int HEADER_VERSION = 4;
+
+    static final int HEADER_PAGE_SIZE = 8;
+
+    static final int HEADER_HEIGHT = 12;
+
+    static final int HEADER_ROOT = 16;
+
+    static final int HEADER_FIRST_LEAF = 20;
+
+    static final int HEADER_SIZE = 24;
+
+    static final int HEADER_LOG_LENGTH = 32;
+
+    /*
+     * Node page layout:
+     * 
+     * [type:1][prefix bytes:1][key width:1][unused:1][count:4][prev leaf:4]
+     * 
+     * [next leaf:4][prefix:8][keys:count*width][values:count*8 or children:(count+1)*4]
+     * 
+     * A key is stored as 'key width' bytes big-endian, holding its bits after
+     * 
+     * the first 'prefix bytes' bytes, which all keys of the page share with
+     * 
+     * 'prefix'; the bytes after those are zero in every key of the page. Keys
+     * 
+     * are compared with the sign bit flipped, so that byte order is key order.
+     */
+
+    static final int NODE_TYPE = 0;
+
+    static final int NODE_PREFIX_BYTES = 1;
+
+    static final int NODE_KEY_WIDTH = 2;
+
+    static final int NODE_COUNT = 4;
+
+    static final int NODE_PREV = 8;
+
+    static final int NODE_NEXT = 12;
+
+    static final int NODE_PREFIX = 16;
+
+    static final int NODE_HEADER = 24;
+
+    private final FileChannel channel;
+
+    private final BufferPool pool;
+
+    private final ByteBuffer buffer; // the frames of the pool, at the offsets pin() returns
+
+    private final int height;
+
+    private final int rootPage;
+
+    private final int firstLeafPage;
+
+    private final int leafCount;
+
+    private final long size;
+
+    private final long logLength;
+
+    /* ~~~~~~~~~~~~~~~~ API:OPEN, SEARCH ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * This method opens an existing page file with a cache of
+     * 
+     * DEFAULT_CACHE_BYTES.
+     * 
+     * @param file: the page file written by write()
+     * 
+     * @return the B+ tree, which must be closed once no longer needed
+     * 
+     * @throws IOException if the file cannot be read or is not a page file
+     * 
+     */
+
+    public static PagedBPlusTree open(File file) throws IOException {
+
+        return open(file, DEFAULT_CACHE_BYTES);
+
+    }
+
+    /**
+     * 
+     * This method opens an existing page file. Only the header page is read
+     * 
+     * here; all other pages are read into the cache on demand by search().
+     * 
+     * @param file:       the page file written by write()
+     * 
+     * @param cacheBytes: the memory to be spent on cached pages
+     * 
+     * @return the B+ tree, which must be closed once no longer needed
+     * 
+     * @throws IOException if the file cannot be read or is not a page file
+     * 
+     */
+
+    public static PagedBPlusTree open(File file, long cacheBytes) throws IOException {
+
+        return open(file, cacheBytes, null);
+
+    }
+
+    /**
+     * 
+     * This method opens a page file that replaces 'previous', reusing the
+     * 
+     * buffer of its cache where it can (see BufferPool). 'previous' must
+     * 
+     * only be closed afterwards, not searched.
+     * 
+     * @param file:       the page file written by write()
+     * 
+     * @param cacheBytes: the memory to be spent on cached pages
+     * 
+     * @param previous:   the B+ tree being replaced, or null
+     * 
+     * @return the B+ tree, which must be closed once no longer needed
+     * 
+     * @throws IOException if the file cannot be read or is not a page file
+     * 
+     */
+
+    public static PagedBPlusTree open(File file, long cacheBytes, PagedBPlusTree previous) throws IOException {
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+
+            return new PagedBPlusTree(channel, cacheBytes, file, (previous == null) ? null : previous.pool);
+
+        } catch (IOException e) {
+
+            channel.close();
+
+            throw e;
+
+        }
+
+    }
+
+    /**
+     * 
+     * Given a key, this method returns the value associated with the key by
+     * 
+     * descending from the root page to the leaf page that may hold it.
+     * 
+     * @param key: the key to be searched within the B+ tree
+     * 
+     * @return the value associated with the key, or null if it is not present
+     * 
+     */
+
+    public Long search(long key) {
+
+        int base = findLeafPage(key);
+
+        if (base < 0) {
+            return null;
+        }
+
+        try {
+
+            int index = findInLeaf(base, key);
+
+            return (index < 0) ? null : this.buffer.getLong(valuesOf(this.buffer, base) + 8 * index);
+
+        } finally {
+
+            this.pool.unpin(base);
+
+        }
+
+    }
+
+    /**
+     * 
+     * Given a key, this method returns the value associated with the key, or
+     * 
+     * 'notFound' if the key is not present, without boxing or allocating.
+     * 
+     * @param key:      the key to be searched within the B+ tree
+     * 
+     * @param notFound: the value to be returned when the key is absent
+     * 
+     * @return the value associated with the key, or notFound
+     * 
+     */
+
+    public long search(long key, long notFound) {
+
+        int base = findLeafPage(key);
+
+        if (base < 0) {
+            return notFound;
+        }
+
+        try {
+
+            int index = findInLeaf(base, key);
+
+            return (index < 0) ? notFound : this.buffer.getLong(valuesOf(this.buffer, base) + 8 * index);
+
+        } finally {
+
+            this.pool.unpin(base);
+
+        }
+
+    }
+
+    /**
+     * 
+     * This method descends from the root page to the leaf page that may hold
+     * 
+     * 'key', taking the child right of every separator key <= 'key'. Each page
+     * 
+     * is pinned only until its child is, and the leaf is left pinned.
+     * 
+     * @param key: the key being searched for
+     * 
+     * @return the byte offset of the pinned leaf page within the pool, or -1 if
+     * 
+     *         the tree is empty
+     * 
+     */
+
+    private int findLeafPage(long key) {
+
+        if (this.size == 0) {
+            return -1;
+        }
+
+        int base = this.pool.pin(this.rootPage);
+
+        // Descend through the internal levels, taking the child right of every key <= 'key'
+
+        for (int level = this.height; level > 1; level--) {
+
+            int lo = 0;
+
+            int hi = this.buffer.getInt(base + NODE_COUNT);
+
+            while (lo < hi) {
+
+                int mid = (lo + hi) >>> 1;
+
+                if (key < keyAt(this.buffer, base, mid)) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+
+            }
+
+            int child = this.buffer.getInt(valuesOf(this.buffer, base) + 4 * lo);
+
+            int childBase;
+
+            try {
+
+                childBase = this.pool.pin(child);
+
+            } finally {
+
+                this.pool.unpin(base);
+
+            }
+
+            base = childBase;
+
+        }
+
+        return base;
+
+    }
+
+    /**
+     * 
+     * This method performs a binary search for 'key' within a leaf page.
+     * 
+     * @param base: the byte offset of the leaf page
+     * 
+     * @param key:  the key being searched for
+     * 
+     * @return the index of the key within the page, or -1 if it is not present
+     * 
+     */
+
+    private int findInLeaf(int base, long key) {
+
+        int lo = 0;
+
+        int hi = this.buffer.getInt(base + NODE_COUNT) - 1;
+
+        while (lo <= hi) {
+
+            int mid = (lo + hi) >>> 1;
+
+            long midKey = keyAt(this.buffer, base, mid);
+
+            if (midKey < key) {
+                lo = mid + 1;
+            } else if (midKey > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * 
+     * This method decompresses the key at 'index' within a page.
+     * 
+     * @param buffer: the buffer holding the page
+     * 
+     * @param base:   the byte offset of the page within buffer
+     * 
+     * @param index:  the index of the key within the page
+     * 
+     * @return the key
+     * 
+     */
+
+    private static long keyAt(ByteBuffer buffer, int base, int index) {
+
+        int width = buffer.get(base + NODE_KEY_WIDTH);
+
+        int position = base + NODE_HEADER + width * index;
+
+        long bits = 0;
+
+        for (int i = 0; i < width; i++) {
+            bits = (bits << 8) | (buffer.get(position + i) & 0xFF);
+        }
+
+        int shift = 8 * (8 - buffer.get(base + NODE_PREFIX_BYTES) - width);
+
+        return (buffer.getLong(base + NODE_PREFIX) | (bits << shift)) ^ Long.MIN_VALUE;
+
+    }
+
+    // The byte offset of the values of a leaf page, or the children of an internal page
+
+    private static int valuesOf(ByteBuffer buffer, int base) {
+
+        return base + NODE_HEADER + buffer.get(base + NODE_KEY_WIDTH) * buffer.getInt(base + NODE_COUNT);
+
+    }
+
+    /**
+     * 
+     * This method copies every key/value pair, in key order, into the given
+     * 
+     * arrays by walking the leaf pages from the first one. The pages are read
+     * 
+     * into a buffer of their own rather than through the cache, so a full scan
+     * 
+     * does not push out the pages that searches keep using.
+     * 
+     * @param keys:   array of at least size() elements to receive the keys
+     * 
+     * @param values: array of at least size() elements to receive the values
+     * 
+     * @return the number of pairs copied
+     * 
+     * @throws IOException if a page cannot be read
+     * 
+     */
+
+    public int copyEntries(long[] keys, long[] values) throws IOException {
+
+        int n = 0;
+
+        int page = (this.size == 0) ? -1 : this.firstLeafPage;
+
+        ByteBuffer leaf = ByteBuffer.allocate(PAGE_SIZE);
+
+        while (page != -1) {
+
+            readPage(this.channel, leaf, page);
+
+            int count = leaf.getInt(NODE_COUNT);
+
+            int valuesBase = valuesOf(leaf, 0);
+
+            for (int i = 0; i < count; i++, n++) {
+
+                keys[n] = keyAt(leaf, 0, i);
+
+                values[n] = leaf.getLong(valuesBase + 8 * i);
+
+            }
+
+            page = leaf.getInt(NODE_NEXT);
+
+        }
+
+        return n;
+
+    }
+
+    /**
+     * 
+     * @return the number of key/value pairs stored in the page file
+     * 
+     */
+
+    public long size() {
+
+        return this.size;
+
+    }
+
+    /**
+     * 
+     * @return the number of levels of pages, leaves included; 0 if empty
+     * 
+     */
+
+    public int height() {
+
+        return (this.size == 0) ? 0 : this.height;
+
+    }
+
+    /**
+     * 
+     * @return the number of leaf pages
+     * 
+     */
+
+    public int leafCount() {
+
+        return this.leafCount;
+
+    }
+
+    /**
+     * 
+     * @return the length of the index log that had been applied when the page
+     * 
+     *         file was written; entries past it still have to be replayed
+     * 
+     */
+
+    public long logLength() {
+
+        return this.logLength;
+
+    }
+
+    /**
+     * 
+     * @return the cache the pages are read through, for its hit and miss counts
+     * 
+     */
+
+    public BufferPool bufferPool() {
+
+        return this.pool;
+
+    }
+
+    @Override
+
+    public void close() throws IOException {
+
+        this.channel.close();
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ API:WRITE ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * This method writes a new page file bottom-up from pairs that are sorted by
+     * 
+     * key and free of duplicates: full leaf pages first, then each internal
+     * 
+     * level over the one below it, and the root last. The file is written next
+     * 
+     * to its destination and moved into place once it has been forced to disk,
+     * 
+     * so readers never observe a partially written page file.
+     * 
+     * @param file:      the page file to be (re)written
+     * 
+     * @param keys:      the sorted, unique keys
+     * 
+     * @param values:    the values, parallel to keys
+     * 
+     * @param n:         the number of pairs to be written
+     * 
+     * @param logLength: the length of the index log covered by these pairs
+     * 
+     * @throws IOException if the file cannot be written
+     * 
+     */
+
+    public static void write(File file, long[] keys, long[] values, int n, long logLength) throws IOException {
+
+        File tmp = new File(file.getPath() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+
+            int nextPage = 1;
+
+            int height = 0;
+
+            int rootPage = -1;
+
+            if (n > 0) {
+
+                // Write the leaf pages, filling each with as many pairs as fit once compressed
+
+                long[] lowKeys = new long[n]; // the smallest and largest key of each page, sign bit flipped
+
+                long[] highKeys = new long[n];
+
+                int levelCount = 0;
+
+                int start = 0;
+
+                while (start < n) {
+
+                    long first = keys[start] ^ Long.MIN_VALUE;
+
+                    long bits = first;
+
+                    int count = 1;
+
+                    while (start + count < n) {
+
+                        long next = keys[start + count] ^ Long.MIN_VALUE;
+
+                        if (NODE_HEADER + (count + 1) * (keyWidth(first, next, bits | next) + 8) > PAGE_SIZE) {
+                            break;
+                        }
+
+                        bits |= next;
+
+                        count++;
+
+                    }
+
+                    long last = keys[start + count - 1] ^ Long.MIN_VALUE;
+
+                    clear(page);
+
+                    page.put(NODE_TYPE, LEAF);
+
+                    page.putInt(NODE_PREV, (start == 0) ? -1 : nextPage - 1);
+
+                    page.putInt(NODE_NEXT, (start + count == n) ? -1 : nextPage + 1);
+
+                    int valuesBase = putKeys(page, first, last, bits, keys, start, count);
+
+                    for (int j = 0; j < count; j++) {
+                        page.putLong(valuesBase + 8 * j, values[start + j]);
+                    }
+
+                    writePage(channel, page, nextPage++);
+
+                    lowKeys[levelCount] = first;
+
+                    highKeys[levelCount++] = last;
+
+                    start += count;
+
+                }
+
+                height = 1;
+
+                // Build internal levels until a single root page remains
+
+                int levelFirstPage = 1;
+
+                long[] separators = new long[levelCount];
+
+                while (levelCount > 1) {
+
+                    // The separator left of each child tells it apart from the child before it
+
+                    for (int i = 1; i < levelCount; i++) {
+                        separators[i] = shortestSeparator(highKeys[i - 1], lowKeys[i]);
+                    }
+
+                    int parentFirstPage = nextPage;
+
+                    int parentCount = 0;
+
+                    start = 0;
+
+                    while (start < levelCount) {
+
+                        long bits = 0;
+
+                        int children = 1;
+
+                        while (start + children < levelCount) {
+
+                            long next = separators[start + children];
+
+                            long first = (children == 1) ? next : separators[start + 1];
+
+                            int width = keyWidth(first, next, bits | next);
+
+                            if (NODE_HEADER + children * width + 4 * (children + 1) > PAGE_SIZE) {
+                                break;
+                            }
+
+                            bits |= next;
+
+                            children++;
+
+                        }
+
+                        clear(page);
+
+                        page.put(NODE_TYPE, INTERNAL);
+
+                        long first = (children == 1) ? 0 : separators[start + 1];
+
+                        long last = (children == 1) ? 0 : separators[start + children - 1];
+
+                        int childrenBase = putKeys(page, first, last, bits, separators, start + 1, children - 1);
+
+                        for (int j = 0; j < children; j++) {
+                            page.putInt(childrenBase + 4 * j, levelFirstPage + start + j);
+                        }
+
+                        writePage(channel, page, nextPage++);
+
+                        // Pages are consumed in order, so the level is rewritten in place
+
+                        lowKeys[parentCount] = lowKeys[start];
+
+                        highKeys[parentCount++] = highKeys[start + children - 1];
+
+                        start += children;
+
+                    }
+
+                    levelCount = parentCount;
+
+                    levelFirstPage = parentFirstPage;
+
+                    height++;
+
+                }
+
+                rootPage = nextPage - 1;
+
+            }
+
+            // Write the header last, once the root is known
+
+            clear(page);
+
+            page.putInt(HEADER_MAGIC, MAGIC);
+
+            page.putInt(HEADER_VERSION, VERSION);
+
+            page.putInt(HEADER_PAGE_SIZE, PAGE_SIZE);
+
+            page.putInt(HEADER_HEIGHT, height);
+
+            page.putInt(HEADER_ROOT, rootPage);
+
+            page.putInt(HEADER_FIRST_LEAF, (n > 0) ? 1 : -1);
+
+            page.putLong(HEADER_SIZE, n);
+
+            page.putLong(HEADER_LOG_LENGTH, logLength);
+
+            writePage(channel, page, 0);
+
+            channel.force(true);
+
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    /* ~~~~~~~~~~~~~~~~ HELPER FUNCTIONS ~~~~~~~~~~~~~~~~ */
+
+    /*
+     * The number of leading bytes shared by keys 'first' to 'last' (sign bit
+     * 
+     * flipped, in order), and the number of trailing bytes that are zero in all
+     * 
+     * of them, given 'bits', the OR of all of them
+     */
+
+    private static int prefixBytes(long first, long last) {
+
+        return Long.numberOfLeadingZeros(first ^ last) / 8;
+
+    }
+
+    private static int zeroBytes(long first, long last, long bits) {
+
+        return Math.min(Long.numberOfTrailingZeros(bits) / 8, 8 - prefixBytes(first, last));
+
+    }
+
+    private static int keyWidth(long first, long last, long bits) {
+
+        return 8 - prefixBytes(first, last) - zeroBytes(first, last, bits);
+
+    }
+
+    /**
+     * 
+     * This method writes 'count' keys starting at keys[start] into a node page,
+     * 
+     * compressed, along with the count and the compression fields of the page
+     * 
+     * header.
+     * 
+     * @param page:  the page being built
+     * 
+     * @param first: the first key, sign bit flipped
+     * 
+     * @param last:  the last key, sign bit flipped
+     * 
+     * @param bits:  the OR of all keys, sign bits flipped
+     * 
+     * @param keys:  the keys, as signed longs for a leaf page or with the sign
+     * 
+     *               bit flipped for an internal page
+     * 
+     * @return the offset within the page just after the keys
+     * 
+     */
+
+    private static int putKeys(ByteBuffer page, long first, long last, long bits, long[] keys, int start, int count) {
+
+        int prefixBytes = prefixBytes(first, last);
+
+        int width = keyWidth(first, last, bits);
+
+        int shift = 8 * (8 - prefixBytes - width);
+
+        boolean flip = page.get(NODE_TYPE) == LEAF;
+
+        page.put(NODE_PREFIX_BYTES, (byte) prefixBytes);
+
+        page.put(NODE_KEY_WIDTH, (byte) width);
+
+        page.putInt(NODE_COUNT, count);
+
+        page.putLong(NODE_PREFIX, (prefixBytes == 0) ? 0 : first & (-1L << (64 - 8 * prefixBytes)));
+
+        int position = NODE_HEADER;
+
+        for (int i = 0; i < count; i++) {
+
+            long key = flip ? keys[start + i] ^ Long.MIN_VALUE : keys[start + i];
+
+            for (int j = width - 1; j >= 0; j--) {
+                page.put(position++, (byte) (key >>> (shift + 8 * j)));
+            }
+
+        }
+
+        return position;
+
+    }
+
+    /*
+     * The key with the most trailing zero bits that is greater than 'low' and
+     * 
+     * at most 'high' (both sign bit flipped): 'high' cut off below the highest
+     * 
+     * bit at which the two differ
+     */
+
+    private static long shortestSeparator(long low, long high) {
+
+        return high & (-1L << (63 - Long.numberOfLeadingZeros(low ^ high)));
+
+    }
+
+    private static void clear(ByteBuffer page) {
+
+        page.clear();
+
+        page.put(new byte[PAGE_SIZE]);
+
+        page.clear();
+
+    }
+
+    private static void readPage(FileChannel channel, ByteBuffer page, int pageNumber) throws IOException {
+
+        page.clear();
+
+        long position = (long) pageNumber * PAGE_SIZE;
+
+        while (page.hasRemaining()) {
+
+            int read = channel.read(page, position + page.position());
+
+            if (read < 0) {
+                throw new IOException("Unexpected end of page file at page " + pageNumber);
+            }
+
+        }
+
+    }
+
+    private static void writePage(FileChannel channel, ByteBuffer page, int pageNumber) throws IOException {
+
+        page.clear();
+
+        long position = (long) pageNumber * PAGE_SIZE;
+
+        while (page.hasRemaining()) {
+            position += channel.write(page, position);
+        }
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     * @param channel:    the open page file, closed by close()
+     * 
+     * @param cacheBytes: the memory to be spent on cached pages
+     * 
+     * @param file:       the page file, used in error messages
+     * 
+     */
+
+    private PagedBPlusTree(FileChannel channel, long cacheBytes, File file, BufferPool previous) throws IOException {
+
+        long length = channel.size();
+
+        if (length < PAGE_SIZE || length > (long) Integer.MAX_VALUE * PAGE_SIZE || length % PAGE_SIZE != 0) {
+            throw new IOException("Not a B+ tree page file: " + file);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+
+        readPage(channel, header, 0);
+
+        if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION
+                || header.getInt(HEADER_PAGE_SIZE) != PAGE_SIZE) {
+            throw new IOException("Not a B+ tree page file: " + file);
+        }
+
+        this.channel = channel;
+
+        this.pool = new BufferPool(channel, PAGE_SIZE, (int) (length / PAGE_SIZE), cacheBytes, previous);
+
+        this.buffer = this.pool.buffer();
+
+        this.height = header.getInt(HEADER_HEIGHT);
+
+        this.rootPage = header.getInt(HEADER_ROOT);
+
+        this.firstLeafPage = header.getInt(HEADER_FIRST_LEAF);
+
+        this.size = header.getLong(HEADER_SIZE);
+
+        this.logLength = header.getLong(HEADER_LOG_LENGTH);
+
+        // Leaf pages are written first, so they are numbered from firstLeafPage to the last one
+
+        this.leafCount = (this.size == 0) ? 0 : lastLeafPage() - this.firstLeafPage + 1;
+
+    }
+
+    // Follows the last child of every internal page down to the last leaf page
+
+    private int lastLeafPage() {
+
+        int page = this.rootPage;
+
+        for (int level = this.height; level > 1; level--) {
+
+            int base = this.pool.pin(page);
+
+            try {
+
+                page = this.buffer.getInt(valuesOf(this.buffer, base) + 4 * this.buffer.getInt(base + NODE_COUNT));
+
+            } finally {
+
+                this.pool.unpin(base);
+
+            }
+
+        }
+
+        return page;
+
+    }
+
+}
@@ -0,0 +1,232 @@
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * 
+ * This class represents the values stored under one key of a multi-value B+
+ * 
+ * tree, such as the offsets of every record with the same Last_Name. Each
+ * 
+ * value is stored as the difference from the one appended before it, zigzag
+ * 
+ * encoded and written as a varint, so offsets appended in file order usually
+ * 
+ * take one to three bytes each instead of eight. Appending is amortized O(1)
+ * 
+ * and iteration decodes the bytes in a single pass without allocating.
+ * 
+ */
+
+public class PostingList {
+
+    private byte[] bytes;
+
+    private int length; // bytes in use
+
+    private int size; // number of values
+
+    private long last; // the last value appended, which the next delta is taken from
+
+    /* ~~~~~~~~~~~~~~~~ API:ADD, REMOVE, ITERATE ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * This method appends a value to the end of the list.
+     * 
+     * @param value: the value to be appended
+     * 
+     */
+
+    public void add(long value) {
+
+        long delta = value - this.last;
+
+        long zigzag = (delta << 1) ^ (delta >> 63);
+
+        if (this.length + 10 > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes, Math.max(this.length + 10, this.bytes.length * 2));
+        }
+
+        while ((zigzag & ~0x7FL) != 0) {
+
+            this.bytes[this.length++] = (byte) ((zigzag & 0x7F) | 0x80);
+
+            zigzag >>>= 7;
+
+        }
+
+        this.bytes[this.length++] = (byte) zigzag;
+
+        this.last = value;
+
+        this.size++;
+
+    }
+
+    /**
+     * 
+     * This method removes the first occurrence of a value by re-encoding the
+     * 
+     * values around it.
+     * 
+     * @param value: the value to be removed
+     * 
+     * @return a boolean indicating whether the value was found and removed
+     * 
+     */
+
+    public boolean remove(long value) {
+
+        long[] values = toArray();
+
+        int index = -1;
+
+        for (int i = 0; i < values.length && index < 0; i++) {
+
+            if (values[i] == value) {
+                index = i;
+            }
+
+        }
+
+        if (index < 0) {
+            return false;
+        }
+
+        this.length = 0;
+
+        this.size = 0;
+
+        this.last = 0;
+
+        for (int i = 0; i < values.length; i++) {
+
+            if (i != index) {
+                add(values[i]);
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * 
+     * @return the number of values within the list
+     * 
+     */
+
+    public int size() {
+
+        return this.size;
+
+    }
+
+    /**
+     * 
+     * @return the number of bytes the encoded values take
+     * 
+     */
+
+    public int encodedBytes() {
+
+        return this.length;
+
+    }
+
+    /**
+     * 
+     * This method passes every value to 'consumer' in the order appended.
+     * 
+     */
+
+    public void forEach(LongConsumer consumer) {
+
+        Iterator iterator = iterator();
+
+        while (iterator.hasNext()) {
+            consumer.accept(iterator.nextLong());
+        }
+
+    }
+
+    public long[] toArray() {
+
+        long[] values = new long[this.size];
+
+        Iterator iterator = iterator();
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = iterator.nextLong();
+        }
+
+        return values;
+
+    }
+
+    public Iterator iterator() {
+
+        return new Iterator();
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     */
+
+    public PostingList() {
+
+        this.bytes = new byte[8];
+
+    }
+
+    /**
+     * 
+     * This class walks the values of the list in the order appended, without
+     * 
+     * boxing them.
+     * 
+     */
+
+    public class Iterator {
+
+        private int position;
+
+        private long value;
+
+        public boolean hasNext() {
+
+            return this.position < PostingList.this.length;
+
+        }
+
+        public long nextLong() {
+
+            long zigzag = 0;
+
+            int shift = 0;
+
+            byte b;
+
+            do {
+
+                b = PostingList.this.bytes[this.position++];
+
+                zigzag |= (long) (b & 0x7F) << shift;
+
+                shift += 7;
+
+            } while (b < 0);
+
+            this.value += (zigzag >>> 1) ^ -(zigzag & 1);
+
+            return this.value;
+
+        }
+
+    }
+
+}
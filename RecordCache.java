@@ -0,0 +1,89 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the records looked up by Emp_ID, keyed by their offset in the record file.
+ * Once full it drops the least recently used record. Records are appended and never rewritten in
+ * place, so an offset names the same record until that record is deleted, which is when remove()
+ * must be called; nothing else can make an entry stale.
+ */
+public class RecordCache {
+    private final int capacity;
+    private final Map<Long, RecordFormat.Record> records;
+    private long hits, misses;
+
+    /**
+     * Creates a cache of at most 'capacity' records; a capacity of 0 disables it.
+     */
+    @SuppressWarnings("serial")
+    public RecordCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Record cache size must not be negative: " + capacity);
+        }
+        this.capacity = capacity;
+        // Access order, so the eldest entry is the least recently used one
+        this.records = new LinkedHashMap<Long, RecordFormat.Record>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, RecordFormat.Record> eldest) {
+                return size() > RecordCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the record at 'offset', or null if it isn't cached.
+     */
+    public synchronized RecordFormat.Record get(long offset) {
+        RecordFormat.Record record = records.get(offset);
+        if (record == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return record;
+    }
+
+    public synchronized void put(long offset, RecordFormat.Record record) {
+        if (capacity > 0) {
+            records.put(offset, record);
+        }
+    }
+
+    /**
+     * Drops the record at 'offset', which has been deleted.
+     */
+    public synchronized void remove(long offset) {
+        records.remove(offset);
+    }
+
+    /**
+     * Drops every record, for when the record file has been cut back and offsets may be reused.
+     */
+    public synchronized void clear() {
+        records.clear();
+    }
+
+    public synchronized int size() {
+        return records.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of lookups served from the cache, or 0 before the first lookup.
+     */
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+}
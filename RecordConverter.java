@@ -0,0 +1,95 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converts human_resource.txt into the binary record layout, writing human_resource.dat and a
+ * fresh index_dat.txt. Only the records the index points at are copied, so deleted records and
+ * rejected duplicates are left behind. Run with -Drecord.format=binary afterwards to use them.
+ */
+public class RecordConverter {
+
+    public static void main(String[] args) {
+        try {
+            int count = convert();
+            System.out.println("Converted " + count + " records into " + Index.BINARY_RECORD_FILE);
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    public static int convert() throws IOException {
+        // Replay any logged batches and write a page file holding exactly the live entries
+        try (Index index = new Index(BPlusTree.orderForNodeBytes(4096), new CsvRecordFormat())) {
+            index.buildIndex();
+            if (!index.isUsable()) {
+                throw new IOException("The CSV index could not be built, so there is nothing to convert");
+            }
+        }
+        int n;
+        long[] keys, offsets;
+        try (PagedBPlusTree snapshot = PagedBPlusTree.open(new File(Index.SNAPSHOT_FILE))) {
+            n = (int) snapshot.size();
+            keys = new long[n];
+            offsets = new long[n];
+            snapshot.copyEntries(keys, offsets);
+        }
+
+        CsvRecordFormat csv = new CsvRecordFormat();
+        BinaryRecordFormat binary = new BinaryRecordFormat();
+        String recordTmp = Index.BINARY_RECORD_FILE + ".tmp";
+        String indexTmp = Index.BINARY_INDEX_FILE + ".tmp";
+        try (FileChannel in = FileChannel.open(Paths.get(Index.RECORD_FILE), StandardOpenOption.READ);
+                FileChannel records = open(recordTmp);
+                FileChannel index = open(indexTmp)) {
+            long pos = 0;
+            StringBuilder entries = new StringBuilder();
+            String[] fields = new String[RecordFormat.FIELD_COUNT];
+            for (int i = 0; i < n; i++) {
+                RecordFormat.Record record = csv.read(in, offsets[i]);
+                for (int f = 0; f < fields.length; f++) {
+                    fields[f] = record.field(f);
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(binary.encode(fields));
+                while (bytes.hasRemaining()) {
+                    pos += records.write(bytes);
+                }
+                entries.append(keys[i]).append(',').append(pos - bytes.capacity()).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(entries.toString().getBytes(StandardCharsets.ISO_8859_1));
+            while (buffer.hasRemaining()) {
+                index.write(buffer);
+            }
+            records.force(false);
+            index.force(false);
+        }
+
+        // The old binary page file, log and secondary indexes describe the files being replaced
+        Files.deleteIfExists(Paths.get(Index.BINARY_SNAPSHOT_FILE));
+        Files.deleteIfExists(Paths.get(Index.BINARY_WAL_FILE));
+        String indexBase = Paths.get(Index.BINARY_INDEX_FILE).getFileName().toString();
+        String secondaryGlob = indexBase.substring(0, indexBase.lastIndexOf('.')) + "_*.idx";
+        Path directory = Paths.get(Index.BINARY_INDEX_FILE).toAbsolutePath().getParent();
+        try (DirectoryStream<Path> secondaryFiles = Files.newDirectoryStream(directory, secondaryGlob)) {
+            for (Path secondaryFile : secondaryFiles) {
+                Files.delete(secondaryFile);
+            }
+        }
+        Files.move(Paths.get(recordTmp), Paths.get(Index.BINARY_RECORD_FILE), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(Paths.get(indexTmp), Paths.get(Index.BINARY_INDEX_FILE), StandardCopyOption.ATOMIC_MOVE);
+        return n;
+    }
+
+    private static FileChannel open(String path) throws IOException {
+        return FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+
+/**
+ * The layout of the records in the record file. Index encodes every record it appends through
+ * it and reads records back through it, so the CSV and binary layouts are interchangeable.
+ */
+public interface RecordFormat {
+    int FIELD_COUNT = 13;
+
+    // Field positions, in the order getData() asks for them
+    int EMP_ID = 0, FIRST_NAME = 1, LAST_NAME = 2, GENDER = 3, E_MAIL = 4, FATHERS_NAME = 5, MOTHERS_NAME = 6,
+            DATE_OF_BIRTH = 7, AGE = 8, DATE_OF_JOINING = 9, SALARY = 10, SSN = 11, PHONE_NO = 12;
+
+    String[] FIELD_NAMES = { "Emp_ID", "First_Name", "Last_Name", "Gender", "E_Mail", "Fathers_Name",
+            "Mothers_Name", "Date_of_Birth", "Age", "Date_of_Joining", "Salary", "SSN", "Phone_No" };
+
+    /**
+     * Returns the bytes to append to the record file for a record with the given fields.
+     */
+    byte[] encode(String[] fields);
+
+    /**
+     * Reads the record starting at 'pos'. Fields are only decoded when asked for.
+     */
+    Record read(FileChannel channel, long pos) throws IOException;
+
+    /**
+     * Passes every record that has not been deleted to 'consumer', in file order. A record may
+     * share the scan buffer, so it is only valid during the call.
+     */
+    void scan(FileChannel channel, Consumer<Record> consumer) throws IOException;
+
+    /**
+     * Reads the record starting at 'pos', decoding it straight from the mapped file.
+     */
+    Record read(MappedRecordFile file, long pos) throws IOException;
+
+    /**
+     * Like scan(FileChannel, Consumer), over the mapped file.
+     */
+    void scan(MappedRecordFile file, Consumer<Record> consumer) throws IOException;
+
+    /**
+     * Returns the format named by the "record.format" system property: "csv" (the default) or
+     * "binary".
+     */
+    static RecordFormat configured() {
+        String name = System.getProperty("record.format", "csv");
+        switch (name) {
+            case "csv":
+                return new CsvRecordFormat();
+            case "binary":
+                return new BinaryRecordFormat();
+            default:
+                throw new IllegalArgumentException("Unknown record format: " + name);
+        }
+    }
+
+    /**
+     * Returns the position of the field called 'name', ignoring case, or -1.
+     */
+    static int fieldIndex(String name) {
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (FIELD_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    interface Record {
+        String field(int index);
+
+        // The number of bytes the record takes in the record file
+        int size();
+    }
+}
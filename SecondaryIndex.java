@@ -0,0 +1,231 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An index on one non-key field of the records. The field is mapped to a long key that preserves
+ * its order (see KeyType), and a multi-value B+ tree maps each distinct key to a posting list of
+ * the offsets of every record with that key, so keys need not be unique. String keys only keep a
+ * prefix of the field, so the offsets found are candidates that the caller checks against the
+ * record itself.
+ */
+public class SecondaryIndex {
+    private static final int FILE_MAGIC = 0x53494433; // "SID3", 8-byte keys and a fingerprint
+    private static final double FILL_FACTOR = 0.9;
+
+    /**
+     * How a field value becomes a long key. keyOf() returns null for a value that can't be indexed.
+     */
+    public enum KeyType {
+        // The first eight ISO-8859-1 bytes, big-endian and zero-padded, with the sign bit flipped so
+        // that signed long order matches the unsigned byte order of String.compareTo()
+        STRING {
+            @Override
+            Long keyOf(String value) {
+                byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+                long key = 0;
+                for (int i = 0; i < 8; i++) {
+                    key = (key << 8) | (i < bytes.length ? bytes[i] & 0xFF : 0);
+                }
+                return key ^ Long.MIN_VALUE;
+            }
+
+            @Override
+            int compare(String a, String b) {
+                return a.compareTo(b);
+            }
+        },
+        // A number, truncated towards negative infinity (the cast clamps it to the long range)
+        NUMBER {
+            @Override
+            Long keyOf(String value) {
+                try {
+                    return (long) Math.floor(Double.parseDouble(value.trim()));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            int compare(String a, String b) {
+                return Double.compare(Double.parseDouble(a.trim()), Double.parseDouble(b.trim()));
+            }
+        },
+        // A month/day/year date such as 11/24/2003, keyed as 20031124
+        DATE {
+            @Override
+            Long keyOf(String value) {
+                String[] parts = value.trim().split("/");
+                if (parts.length != 3) {
+                    return null;
+                }
+                try {
+                    int month = Integer.parseInt(parts[0]), day = Integer.parseInt(parts[1]);
+                    int year = Integer.parseInt(parts[2]);
+                    if (month < 1 || month > 12 || day < 1 || day > 31 || year < 0 || year > 9999) {
+                        return null;
+                    }
+                    return (long) (year * 10000 + month * 100 + day);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            int compare(String a, String b) {
+                return Long.compare(keyOf(a), keyOf(b));
+            }
+        };
+
+        abstract Long keyOf(String value);
+
+        // Orders two indexable values; only needed where keyOf() loses information
+        abstract int compare(String a, String b);
+    }
+
+    final int field;
+    final KeyType type;
+    private BPlusTree tree; // multi-value: key -> posting list of offsets
+    private final int order;
+
+    public SecondaryIndex(int field, KeyType type, int order) {
+        this.field = field;
+        this.type = type;
+        this.order = order;
+        this.tree = new BPlusTree(order, true);
+    }
+
+    /**
+     * Adds the record at 'offset' whose field holds 'value'.
+     */
+    public void add(String value, long offset) {
+        Long key = type.keyOf(value);
+        if (key != null) {
+            tree.add(key, offset);
+        }
+    }
+
+    /**
+     * Removes the record at 'offset' whose field holds 'value'.
+     */
+    public void remove(String value, long offset) {
+        Long key = type.keyOf(value);
+        if (key != null) {
+            tree.remove(key, offset);
+        }
+    }
+
+    /**
+     * Returns the offset of every record whose key lies between the keys of 'from' and 'to', in
+     * key order. For a STRING or NUMBER index these are candidates: records whose value shares a
+     * key with 'from' or 'to' may still lie outside [from, to].
+     */
+    public long[] find(String from, String to) {
+        Long fromKey = type.keyOf(from), toKey = type.keyOf(to);
+        if (fromKey == null || toKey == null || fromKey > toKey) {
+            return new long[0];
+        }
+        // The value of each key is the size of its list, so the result is sized before decoding
+        long count = 0;
+        BPlusTree.Cursor cursor = tree.range(fromKey, toKey);
+        while (cursor.next()) {
+            count += cursor.value();
+        }
+        long[] offsets = new long[(int) count];
+        int n = 0;
+        cursor = tree.range(fromKey, toKey);
+        while (cursor.next()) {
+            PostingList.Iterator postings = cursor.postings().iterator();
+            while (postings.hasNext()) {
+                offsets[n++] = postings.nextLong();
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Replaces the contents of the index with the given records, built bottom-up.
+     */
+    public void build(String[] values, long[] offsets, int n) {
+        long[] keys = new long[n];
+        long[] keyed = new long[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            Long key = type.keyOf(values[i]);
+            if (key != null) {
+                keys[m] = key;
+                keyed[m++] = offsets[i];
+            }
+        }
+        tree = new BPlusTree(order, true);
+        tree.bulkLoad(keys, keyed, m, FILL_FACTOR);
+    }
+
+    /**
+     * Writes every (key, offset) pair to 'file', recording that it covers the index log up to
+     * 'logLength' with the given 'fingerprint' of the data files (see Index.fingerprint()). The file
+     * is written next to it and then moved into place.
+     */
+    public void save(File file, long logLength, long fingerprint) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeLong(logLength);
+            out.writeLong(fingerprint);
+            long count = 0;
+            BPlusTree.Cursor cursor = tree.range(Long.MIN_VALUE, Long.MAX_VALUE);
+            while (cursor.next()) {
+                count += cursor.value();
+            }
+            out.writeInt((int) count);
+            cursor = tree.range(Long.MIN_VALUE, Long.MAX_VALUE);
+            while (cursor.next()) {
+                PostingList.Iterator postings = cursor.postings().iterator();
+                while (postings.hasNext()) {
+                    out.writeLong(cursor.key());
+                    out.writeLong(postings.nextLong());
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the pairs written by save() if 'file' covers the index log up to exactly 'logLength'
+     * and was saved with the same 'fingerprint', and returns whether it did; otherwise the index
+     * is left alone and must be rebuilt. The fingerprint tells apart data files of the same length
+     * that were replaced, e.g. by RecordConverter, whose offsets point elsewhere.
+     */
+    public boolean load(File file, long logLength, long fingerprint) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != FILE_MAGIC || in.readLong() != logLength || in.readLong() != fingerprint) {
+                return false;
+            }
+            int n = in.readInt();
+            long[] keys = new long[n];
+            long[] offsets = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+            tree = new BPlusTree(order, true);
+            tree.bulkLoad(keys, offsets, n, FILL_FACTOR);
+            return true;
+        }
+    }
+}
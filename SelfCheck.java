@@ -0,0 +1,677 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that drive the trees and the index against a simple model of what they should hold
+ * (a TreeMap, or what each thread wrote) and stop at the first difference, so that a regression
+ * in the areas fixed so far shows up without a test framework. The index checks work on files in
+ * a temporary directory and leave the working directory alone. Run with "java SelfCheck" for
+ * every check, or with the names of the checks to run; the exit status is 1 if any failed.
+ *
+ * Configured with system properties: check.seed, for the random operations, and check.threads,
+ * the number of reader and of writer threads in the concurrent checks.
+ */
+public class SelfCheck {
+    private static final long VERSIONS = 1L << 32; // a value in concurrentTree is key * VERSIONS + version
+
+    private final long seed = Long.getLong("check.seed", 42);
+    private final int threads = Integer.getInteger("check.threads",
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    private final Map<String, Check> checks = new LinkedHashMap<>();
+
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    SelfCheck() {
+        checks.put("treeModel", this::treeModel);
+        checks.put("walReplay", this::walReplay);
+        checks.put("concurrentTree", this::concurrentTree);
+        checks.put("keyCodecOrder", this::keyCodecOrder);
+        checks.put("keyedTree", this::keyedTree);
+    }
+
+    public static void main(String[] args) {
+        SelfCheck selfCheck = new SelfCheck();
+        List<String> names = args.length == 0 ? new ArrayList<>(selfCheck.checks.keySet()) : Arrays.asList(args);
+        int failed = 0;
+        for (String name : names) {
+            Check check = selfCheck.checks.get(name);
+            if (check == null) {
+                System.out.println("No such check: " + name);
+                failed++;
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                check.run();
+                System.out.println(String.format(Locale.ROOT, "PASS %-20s %8.1f ms", name, (System.nanoTime() - start) / 1e6));
+            } catch (Throwable e) {
+                System.out.println("FAIL " + name + ": " + e);
+                failed++;
+            }
+        }
+        System.out.println((names.size() - failed) + " of " + names.size() + " checks passed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Inserts, deletes, searches and scans a BPlusTree and a TreeMap side by side, for small orders,
+     * where every few operations split or merge a node, and for both split policies. Keys arrive
+     * in random, ascending and descending order, the last being what the APPEND policy must still
+     * handle; one run per order starts from a bulk loaded tree instead of an empty one. Every key
+     * is then deleted in random order, so that leaves and internal nodes borrow and merge all the
+     * way down to an empty root, and the emptied tree is filled again.
+     */
+    private void treeModel() {
+        Random random = new Random(seed);
+        for (int order : new int[] { 3, 4, 5, 8, 32 }) {
+            for (BPlusTree.SplitPolicy policy : BPlusTree.SplitPolicy.values()) {
+                for (String keys : new String[] { "random", "ascending", "descending", "bulk" }) {
+                    String run = "order " + order + ", " + policy + ", " + keys + " keys: ";
+                    BPlusTree tree = new BPlusTree(order);
+                    tree.setSplitPolicy(policy);
+                    TreeMap<Long, Long> model = new TreeMap<>();
+                    if (keys.equals("bulk")) {
+                        int n = 1000;
+                        long[] bulkKeys = new long[n], bulkValues = new long[n];
+                        for (int i = 0; i < n; i++) {
+                            bulkKeys[i] = 3L * i;
+                            bulkValues[i] = -i;
+                            model.put(bulkKeys[i], bulkValues[i]);
+                        }
+                        tree.bulkLoad(bulkKeys, bulkValues, n, 0.5 + random.nextDouble() / 2);
+                    }
+                    long next = 0;
+                    for (int i = 0; i < 4000; i++) {
+                        long key;
+                        if (keys.equals("ascending")) {
+                            key = (random.nextInt(4) == 0 && !model.isEmpty()) ? randomKey(random, model) : next++;
+                        } else if (keys.equals("descending")) {
+                            key = (random.nextInt(4) == 0 && !model.isEmpty()) ? randomKey(random, model) : next--;
+                        } else {
+                            key = random.nextInt(3000);
+                        }
+                        int op = random.nextInt(10);
+                        if (op < 6) {
+                            // insert() keeps duplicates, so a present key is deleted first
+                            if (model.containsKey(key)) {
+                                check(tree.delete(key), run + "delete of present key " + key + " failed");
+                            }
+                            tree.insert(key, i);
+                            model.put(key, (long) i);
+                        } else if (op < 8) {
+                            check(tree.delete(key) == (model.remove(key) != null), run + "delete(" + key + ") disagrees");
+                        } else {
+                            check(tree.search(key, -1) == model.getOrDefault(key, -1L), run + "search(" + key + ") disagrees");
+                            check(Objects.equals(tree.search(key), model.get(key)), run + "search(" + key + ") disagrees");
+                        }
+                        check(tree.size() == model.size(), run + "size() is " + tree.size() + ", expected " + model.size());
+                        if (i % 100 == 0) {
+                            checkRanges(random, tree, model, run);
+                        }
+                    }
+                    checkRanges(random, tree, model, run);
+
+                    List<Long> remaining = new ArrayList<>(model.keySet());
+                    Collections.shuffle(remaining, random);
+                    for (int i = 0; i < remaining.size(); i++) {
+                        long key = remaining.get(i);
+                        check(tree.delete(key), run + "delete of " + key + " failed");
+                        check(!tree.delete(key), run + "second delete of " + key + " succeeded");
+                        model.remove(key);
+                        check(tree.size() == model.size(), run + "size() is " + tree.size() + ", expected " + model.size());
+                        if (i % 50 == 0 || model.size() < 2 * order) {
+                            checkRanges(random, tree, model, run);
+                        }
+                    }
+                    check(tree.isEmpty(), run + "tree not empty once every key is deleted");
+                    for (long key = 0; key < 10 * order; key++) {
+                        tree.insert(key, key);
+                        model.put(key, key);
+                    }
+                    checkRanges(random, tree, model, run);
+                }
+            }
+        }
+    }
+
+    // Compares a few ascending and descending ranges, and the whole tree, with the model
+    private static void checkRanges(Random random, BPlusTree tree, TreeMap<Long, Long> model, String run) {
+        long low = model.isEmpty() ? 0 : model.firstKey() - 2, high = model.isEmpty() ? 0 : model.lastKey() + 2;
+        for (int i = 0; i < 4; i++) {
+            long from = low + (long) (random.nextDouble() * (high - low + 1));
+            long to = (i == 0) ? from : from + (long) (random.nextDouble() * (high - from + 1));
+            checkRange(tree.range(from, to), model.subMap(from, true, to, true), run + "range(" + from + ", " + to + ")");
+            checkRange(tree.rangeDescending(from, to), model.subMap(from, true, to, true).descendingMap(),
+                    run + "rangeDescending(" + from + ", " + to + ")");
+        }
+        checkRange(tree.range(Long.MIN_VALUE, Long.MAX_VALUE), model, run + "range over every key");
+        checkRange(tree.range(high, low), Collections.emptyNavigableMap(), run + "range(" + high + ", " + low + ")");
+        List<Long> visited = new ArrayList<>();
+        tree.range(Long.MIN_VALUE, Long.MAX_VALUE, (key, value) -> {
+            visited.add(key);
+            visited.add(value);
+        });
+        List<Long> expected = new ArrayList<>();
+        model.forEach((key, value) -> {
+            expected.add(key);
+            expected.add(value);
+        });
+        check(visited.equals(expected), run + "range(EntryConsumer) disagrees over every key");
+    }
+
+    private static void checkRange(BPlusTree.Cursor cursor, NavigableMap<Long, Long> expected, String what) {
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            check(cursor.next(), what + " ended before key " + entry.getKey());
+            check(cursor.key() == entry.getKey() && cursor.value() == entry.getValue(), what + " returned ("
+                    + cursor.key() + ", " + cursor.value() + "), expected (" + entry.getKey() + ", " + entry.getValue() + ")");
+        }
+        if (cursor.next()) {
+            throw new AssertionError(what + " returned key " + cursor.key() + " beyond the last one");
+        }
+    }
+
+    private static long randomKey(Random random, TreeMap<Long, Long> model) {
+        Long key = model.ceilingKey(model.firstKey() + (long) (random.nextDouble() * (model.lastKey() - model.firstKey())));
+        return (key == null) ? model.lastKey() : key;
+    }
+
+    /**
+     * Adds and deletes records through an Index in a temporary directory, checkpointing halfway,
+     * and copies its files while it is still open, as a crash would leave them: the write-ahead
+     * log holds every batch since the checkpoint. In one copy the last record only partly reached
+     * the data files, and recovery must complete it from the log; in the other the last batch
+     * was only partly logged, and recovery must drop it. Each copy is opened twice, the second
+     * time starting from the page file the first open wrote, and must hold what the model does
+     * with nothing left in the log. A third copy ends in a batch that can't be applied, which
+     * must leave the index unusable and the log as it was. Both record formats run.
+     */
+    private void walReplay() throws IOException {
+        for (RecordFormat format : new RecordFormat[] { new CsvRecordFormat(), new BinaryRecordFormat() }) {
+            boolean binary = format instanceof BinaryRecordFormat;
+            String run = (binary ? "binary" : "csv") + ": ";
+            String records = binary ? Index.BINARY_RECORD_FILE : Index.RECORD_FILE;
+            String indexLog = binary ? Index.BINARY_INDEX_FILE : Index.INDEX_FILE;
+            String wal = binary ? Index.BINARY_WAL_FILE : Index.WAL_FILE;
+            List<Path> directories = new ArrayList<>();
+            try {
+                Path original = Files.createTempDirectory("selfcheck");
+                directories.add(original);
+                Random random = new Random(seed);
+                TreeMap<Long, String[]> model = new TreeMap<>();
+                Index index = new Index(4, format, original.toFile());
+                quietly(index::buildIndex);
+                check(index.isUsable(), run + "a new index is unusable");
+                for (int i = 0; i < 600; i++) {
+                    if (i == 300) {
+                        quietly(index::checkpoint);
+                    }
+                    long key = random.nextInt(200);
+                    if (random.nextInt(3) == 0) {
+                        quietly(() -> index.delete(Long.toString(key)));
+                        model.remove(key);
+                    } else {
+                        // Adding a present key must be refused and change nothing
+                        String[] fields = record(key, i);
+                        quietly(() -> index.add(fields));
+                        model.putIfAbsent(key, fields);
+                    }
+                }
+                long[] before = sizes(original, records, indexLog, wal);
+                String[] last = record(1000, 600);
+                quietly(() -> index.add(last));
+                long[] after = sizes(original, records, indexLog, wal);
+                check(after[2] > before[2], run + "the last record wasn't logged");
+
+                Path tornData = copyAll(original, directories);
+                Path tornLog = copyAll(original, directories);
+                Path badBatch = copyAll(original, directories);
+                quietly(index::close);
+                resize(tornData, records, (before[0] + after[0]) / 2);
+                resize(tornData, indexLog, before[1]);
+                // Without an fsync the data files may be written out before the log
+                resize(tornLog, records, (before[0] + after[0]) / 2);
+                resize(tornLog, wal, (before[2] + after[2]) / 2);
+
+                checkReplay(format, tornLog, wal, model, run + "torn log: ");
+                checkFailedReplay(format, badBatch, wal, run + "unreplayable batch: ");
+                model.put(1000L, last);
+                checkReplay(format, tornData, wal, model, run + "torn data: ");
+                checkReplay(format, original, wal, model, run + "closed: ");
+            } finally {
+                for (Path directory : directories) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                        for (Path file : files) {
+                            Files.delete(file);
+                        }
+                    }
+                    Files.delete(directory);
+                }
+            }
+        }
+    }
+
+    // Opens the index in 'directory' twice, checking it against the model each time
+    private static void checkReplay(RecordFormat format, Path directory, String wal, TreeMap<Long, String[]> model,
+            String run) throws IOException {
+        for (int open = 1; open <= 2; open++) {
+            Index index = new Index(4, format, directory.toFile());
+            try {
+                quietly(index::buildIndex);
+                check(index.isUsable(), run + "the index is unusable after open " + open);
+                check(Files.size(directory.resolve(Paths.get(wal).getFileName())) == 0,
+                        run + "the log still holds batches after open " + open);
+                for (long key = 0; key <= model.lastKey(); key++) {
+                    RecordFormat.Record record = index.search(key);
+                    String[] expected = model.get(key);
+                    check((record == null) == (expected == null), run + "search(" + key + ") found "
+                            + (record == null ? "nothing" : "a record") + " after open " + open);
+                    for (int field = 0; expected != null && field < RecordFormat.FIELD_COUNT; field++) {
+                        check(record.field(field).equals(expected[field]), run + "record " + key + " has "
+                                + RecordFormat.FIELD_NAMES[field] + " " + record.field(field) + ", expected " + expected[field]);
+                    }
+                }
+                List<Long> scanned = new ArrayList<>();
+                index.scan(new int[] { RecordFormat.EMP_ID }, null, fields -> scanned.add(Long.parseLong(fields[0])));
+                Collections.sort(scanned);
+                check(scanned.equals(new ArrayList<>(model.keySet())), run + "scan() found " + scanned.size()
+                        + " records after open " + open + ", expected " + model.size());
+            } finally {
+                quietly(index::close);
+            }
+        }
+    }
+
+    // Logs a batch that can't be applied, and checks that opening the index fails but keeps the log
+    private static void checkFailedReplay(RecordFormat format, Path directory, String wal, String run)
+            throws IOException {
+        Path log = directory.resolve(Paths.get(wal).getFileName());
+        WriteAheadLog.Batch batch = new WriteAheadLog.Batch(0, 0);
+        batch.entries.add(new WriteAheadLog.Entry(WriteAheadLog.INSERT, "not an Emp_ID,"));
+        WriteAheadLog writer = new WriteAheadLog(log.toString(), WriteAheadLog.FsyncMode.NONE);
+        try {
+            writer.append(batch);
+        } finally {
+            writer.close();
+        }
+        long logged = Files.size(log);
+        for (int open = 1; open <= 2; open++) {
+            Index index = new Index(4, format, directory.toFile());
+            try {
+                quietly(index::buildIndex);
+                check(!index.isUsable(), run + "the index is usable after open " + open);
+                check(Files.size(log) == logged, run + "the log shrank from " + logged + " to " + Files.size(log)
+                        + " bytes after open " + open);
+            } finally {
+                quietly(index::close);
+            }
+        }
+    }
+
+    private static String[] record(long key, int version) {
+        String[] fields = new String[RecordFormat.FIELD_COUNT];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = RecordFormat.FIELD_NAMES[i] + "-" + key + "-" + version;
+        }
+        fields[RecordFormat.EMP_ID] = Long.toString(key);
+        return fields;
+    }
+
+    private static long[] sizes(Path directory, String... files) throws IOException {
+        long[] sizes = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            sizes[i] = Files.size(directory.resolve(Paths.get(files[i]).getFileName()));
+        }
+        return sizes;
+    }
+
+    private static void resize(Path directory, String file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(Paths.get(file).getFileName()),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    // Copies every file in 'directory' into a new temporary directory, added to 'directories'
+    private static Path copyAll(Path directory, List<Path> directories) throws IOException {
+        Path copy = Files.createTempDirectory("selfcheck");
+        directories.add(copy);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        return copy;
+    }
+
+    // Runs 'action' without the progress messages Index prints
+    private static void quietly(Runnable action) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Readers search and scan a ConcurrentBPlusTree while writers insert, update and delete, each
+     * writer owning the keys equal to its number modulo the writer count, so that it can keep a
+     * serial model of them. A value holds its key and the version that wrote it, which lets a
+     * reader check that it found the key it asked for, never a version newer than its writer has
+     * announced, and never an older one than it found before. Once the writers are done the tree
+     * must hold exactly what their models do. A small order makes splits and merges frequent.
+     */
+    private void concurrentTree() throws Exception {
+        int writers = threads, readers = threads;
+        int keys = 4096, opsPerWriter = 200_000;
+        ConcurrentBPlusTree tree = new ConcurrentBPlusTree(4);
+        AtomicLongArray announced = new AtomicLongArray(keys); // highest version a writer has started
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Map<Long, Long>> models = new ArrayList<>();
+        List<Thread> writerThreads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            Map<Long, Long> model = new HashMap<>();
+            models.add(model);
+            writerThreads.add(new Thread(() -> {
+                Random random = new Random(seed + id);
+                long[] versions = new long[keys];
+                for (int i = 0; i < opsPerWriter && failure.get() == null; i++) {
+                    long key = id + (long) writers * random.nextInt(keys / writers);
+                    Long current = model.get(key);
+                    if (current != null) {
+                        check(tree.delete(key), "delete of present key " + key + " failed");
+                        model.remove(key);
+                        if (random.nextBoolean()) {
+                            continue;
+                        }
+                    }
+                    // Insert, or update after the delete above; the tree keeps duplicates otherwise
+                    long version = ++versions[(int) key];
+                    announced.set((int) key, version);
+                    tree.insert(key, value(key, version));
+                    model.put(key, value(key, version));
+                }
+            }));
+        }
+        List<Thread> readerThreads = new ArrayList<>();
+        long[] lookups = new long[readers];
+        for (int r = 0; r < readers; r++) {
+            int id = r;
+            readerThreads.add(new Thread(() -> {
+                Random random = new Random(seed + 1000 + id);
+                long[] seen = new long[keys];
+                while (!done(writerThreads) && failure.get() == null) {
+                    if (random.nextInt(100) == 0) {
+                        long[] previous = { Long.MIN_VALUE };
+                        tree.range(0, keys, (key, value) -> {
+                            check(key > previous[0], "range out of order at key " + key);
+                            check(value / VERSIONS == key, "range found value " + value + " under key " + key);
+                            previous[0] = key;
+                        });
+                        continue;
+                    }
+                    int key = random.nextInt(keys);
+                    long value = tree.search(key, -1);
+                    lookups[id]++;
+                    if (value < 0) {
+                        continue;
+                    }
+                    long version = value % VERSIONS;
+                    check(value / VERSIONS == key, "search(" + key + ") found value " + value);
+                    check(version <= announced.get(key), "search(" + key + ") found unwritten version " + version);
+                    check(version >= seen[key], "search(" + key + ") went back from version " + seen[key] + " to " + version);
+                    seen[key] = version;
+                }
+            }));
+        }
+        for (Thread thread : writerThreads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        for (Thread thread : readerThreads) {
+            thread.setUncaughtExceptionHandler((t, e) -> failure.compareAndSet(null, e));
+            thread.start();
+        }
+        for (Thread thread : writerThreads) {
+            thread.join();
+        }
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("a thread failed: " + failure.get(), failure.get());
+        }
+
+        TreeMap<Long, Long> expected = new TreeMap<>();
+        for (Map<Long, Long> model : models) {
+            expected.putAll(model);
+        }
+        TreeMap<Long, Long> actual = new TreeMap<>();
+        tree.range(Long.MIN_VALUE, Long.MAX_VALUE, (key, value) -> check(actual.put(key, value) == null, "duplicate key " + key));
+        check(actual.equals(expected), "tree holds " + actual.size() + " keys, the writers " + expected.size());
+        check(tree.size() == expected.size(), "size() is " + tree.size() + ", expected " + expected.size());
+        check(Arrays.stream(lookups).sum() > 0, "readers never ran alongside the writers");
+    }
+
+    /**
+     * Encodes random keys and checks that the unsigned order of the encodings is the order of the
+     * keys, and that every encoding decodes back to its key. The strings are short and drawn from
+     * characters that stress the STRING encoding: NUL, which is escaped, the bytes around it,
+     * characters of two and three UTF-8 bytes, and a surrogate pair, which orders by code point
+     * rather than as String.compareTo() does. Composites must order part by part.
+     */
+    private void keyCodecOrder() {
+        Random random = new Random(seed);
+        KeyCodec<Object[]> longString = KeyCodec.composite(KeyCodec.LONG, KeyCodec.STRING);
+        KeyCodec<Object[]> stringLong = KeyCodec.composite(KeyCodec.STRING, KeyCodec.LONG);
+        long[] longs = { Long.MIN_VALUE, -256, -1, 0, 1, 255, 256, Long.MAX_VALUE };
+        for (int i = 0; i < 100_000; i++) {
+            String s1 = randomString(random, 6), s2 = randomString(random, 6);
+            check(sign(KeyCodec.compare(KeyCodec.STRING.encode(s1), KeyCodec.STRING.encode(s2))) == sign(
+                    codePointCompare(s1, s2)), "STRING orders " + escape(s1) + " and " + escape(s2) + " wrongly");
+            check(KeyCodec.STRING.decode(KeyCodec.STRING.encode(s1)).equals(s1), "STRING doesn't round-trip " + escape(s1));
+
+            long l1 = random.nextBoolean() ? longs[random.nextInt(longs.length)] : random.nextLong();
+            long l2 = random.nextBoolean() ? longs[random.nextInt(longs.length)] : random.nextLong();
+            check(sign(KeyCodec.compare(KeyCodec.LONG.encode(l1), KeyCodec.LONG.encode(l2))) == sign(Long.compare(l1, l2)),
+                    "LONG orders " + l1 + " and " + l2 + " wrongly");
+            check(sign(KeyCodec.compare(KeyCodec.INT.encode((int) l1), KeyCodec.INT.encode((int) l2))) == sign(
+                    Integer.compare((int) l1, (int) l2)), "INT orders " + (int) l1 + " and " + (int) l2 + " wrongly");
+            check(Long.compare(KeyCodec.prefix(KeyCodec.LONG.encode(l1)), KeyCodec.prefix(KeyCodec.LONG.encode(l2))) == sign(
+                    Long.compare(l1, l2)), "LONG prefixes of " + l1 + " and " + l2 + " order wrongly");
+
+            // Often share the first part, so that the second one decides
+            if (random.nextBoolean()) {
+                l2 = l1;
+                s2 = s1;
+            }
+            String s3 = randomString(random, 6), s4 = randomString(random, 6);
+            int expected = (l1 != l2) ? Long.compare(l1, l2) : codePointCompare(s3, s4);
+            byte[] a = longString.encode(new Object[] { l1, s3 }), b = longString.encode(new Object[] { l2, s4 });
+            check(sign(KeyCodec.compare(a, b)) == sign(expected), "composite(LONG, STRING) orders (" + l1 + ", "
+                    + escape(s3) + ") and (" + l2 + ", " + escape(s4) + ") wrongly");
+            expected = !s1.equals(s2) ? codePointCompare(s1, s2) : Long.compare(l1, l2);
+            a = stringLong.encode(new Object[] { s1, l1 });
+            b = stringLong.encode(new Object[] { s2, l2 });
+            check(sign(KeyCodec.compare(a, b)) == sign(expected), "composite(STRING, LONG) orders (" + escape(s1) + ", "
+                    + l1 + ") and (" + escape(s2) + ", " + l2 + ") wrongly");
+            Object[] decoded = stringLong.decode(ByteBuffer.wrap(a));
+            check(decoded[0].equals(s1) && decoded[1].equals(l1), "composite(STRING, LONG) doesn't round-trip");
+        }
+    }
+
+    /**
+     * Inserts, updates, deletes and searches composite (LONG, STRING) keys in a KeyedBPlusTree and
+     * in a TreeMap ordered by their encodings. Each number is shared by thousands of keys whose
+     * strings also share a long prefix, so buckets outgrow MAX_BUCKET_KEYS and split into levels
+     * several deep. Ranges start and end on keys inside buckets as well as between them. Finally
+     * every key is deleted, checking the ranges on the way down, and the emptied tree is reused.
+     */
+    private void keyedTree() {
+        Random random = new Random(seed);
+        KeyCodec<Object[]> codec = KeyCodec.composite(KeyCodec.LONG, KeyCodec.STRING);
+        KeyedBPlusTree<Object[]> tree = new KeyedBPlusTree<>(codec, 5);
+        TreeMap<byte[], Long> model = new TreeMap<>(KeyCodec::compare);
+        List<Object[]> keys = new ArrayList<>();
+        long[] numbers = { -1, 0, 7 };
+        for (int i = 0; i < 6000; i++) {
+            String suffix = randomString(random, 3);
+            keys.add(new Object[] { numbers[random.nextInt(numbers.length)], "employee/department/" + suffix });
+        }
+        for (int i = 0; i < 60_000; i++) {
+            Object[] key = keys.get(random.nextInt(keys.size()));
+            byte[] bytes = codec.encode(key);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                tree.insert(key, i);
+                model.put(bytes, (long) i);
+            } else if (op < 7) {
+                check(tree.delete(key) == (model.remove(bytes) != null), "delete of " + describe(key) + " disagrees");
+            } else {
+                check(tree.search(key, -1) == model.getOrDefault(bytes, -1L), "search for " + describe(key) + " disagrees");
+            }
+            check(tree.size() == model.size(), "size() is " + tree.size() + ", expected " + model.size());
+            if (i % 500 == 0) {
+                checkRanges(random, tree, model, codec, keys);
+            }
+        }
+        check(model.size() > 4 * KeyedBPlusTree.MAX_BUCKET_KEYS, "too few keys to split buckets: " + model.size());
+
+        List<byte[]> remaining = new ArrayList<>(model.keySet());
+        Collections.shuffle(remaining, random);
+        for (int i = 0; i < remaining.size(); i++) {
+            Object[] key = codec.decode(ByteBuffer.wrap(remaining.get(i)));
+            check(tree.delete(key), "delete of " + describe(key) + " failed");
+            check(!tree.delete(key), "second delete of " + describe(key) + " succeeded");
+            model.remove(remaining.get(i));
+            if (i % 200 == 0 || model.size() < 2 * KeyedBPlusTree.MAX_BUCKET_KEYS) {
+                checkRanges(random, tree, model, codec, keys);
+            }
+        }
+        check(tree.size() == 0, "size() is " + tree.size() + " once every key is deleted");
+        Object[] low = { Long.MIN_VALUE, "" }, high = { Long.MAX_VALUE, "\uffff" };
+        tree.range(low, high, (key, value) -> check(false, "emptied tree still holds " + describe(key)));
+
+        // Buckets freed above are reused
+        for (Object[] key : keys) {
+            tree.insert(key, 1);
+            model.put(codec.encode(key), 1L);
+        }
+        check(tree.size() == model.size(), "size() after refilling is " + tree.size() + ", expected " + model.size());
+        checkRanges(random, tree, model, codec, keys);
+    }
+
+    // Compares a few ranges with bounds taken from 'keys' (inside buckets) and made up (anywhere)
+    private static void checkRanges(Random random, KeyedBPlusTree<Object[]> tree, TreeMap<byte[], Long> model,
+            KeyCodec<Object[]> codec, List<Object[]> keys) {
+        for (int i = 0; i < 4; i++) {
+            Object[] from = (i % 2 == 0) ? keys.get(random.nextInt(keys.size()))
+                    : new Object[] { (long) random.nextInt(9) - 1, "employee/" + randomString(random, 2) };
+            Object[] to = (i < 2) ? keys.get(random.nextInt(keys.size()))
+                    : new Object[] { (long) random.nextInt(9) - 1, "employee/department/" + randomString(random, 1) };
+            byte[] fromBytes = codec.encode(from), toBytes = codec.encode(to);
+            List<Long> expected = new ArrayList<>();
+            List<byte[]> expectedKeys = new ArrayList<>();
+            if (KeyCodec.compare(fromBytes, toBytes) <= 0) {
+                for (Map.Entry<byte[], Long> entry : model.subMap(fromBytes, true, toBytes, true).entrySet()) {
+                    expectedKeys.add(entry.getKey());
+                    expected.add(entry.getValue());
+                }
+            }
+            List<Long> actual = new ArrayList<>();
+            List<byte[]> actualKeys = new ArrayList<>();
+            tree.range(from, to, (key, value) -> {
+                actualKeys.add(codec.encode(key));
+                actual.add(value);
+            });
+            check(actual.equals(expected), "range(" + describe(from) + ", " + describe(to) + ") found " + actual.size()
+                    + " keys, expected " + expected.size());
+            for (int j = 0; j < actualKeys.size(); j++) {
+                check(KeyCodec.compare(actualKeys.get(j), expectedKeys.get(j)) == 0, "range(" + describe(from) + ", "
+                        + describe(to) + ") returned the wrong key at " + j);
+            }
+        }
+    }
+
+    private static String randomString(Random random, int maxLength) {
+        String[] characters = { "\0", "\u0001", "a", "b", "\u007f", "\u0080", "\u00ff", "\u20ac", "\uffff",
+                "\ud83d\ude00" };
+        StringBuilder s = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            s.append(characters[random.nextInt(characters.length)]);
+        }
+        return s.toString();
+    }
+
+    private static int codePointCompare(String a, String b) {
+        int[] x = a.codePoints().toArray(), y = b.codePoints().toArray();
+        for (int i = 0; i < Math.min(x.length, y.length); i++) {
+            if (x[i] != y[i]) {
+                return Integer.compare(x[i], y[i]);
+            }
+        }
+        return Integer.compare(x.length, y.length);
+    }
+
+    private static int sign(int comparison) {
+        return Integer.signum(comparison);
+    }
+
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder("\"");
+        s.codePoints().forEach(c -> escaped.append(c >= 0x20 && c < 0x7f ? String.valueOf((char) c)
+                : String.format(Locale.ROOT, "\\u{%x}", c)));
+        return escaped.append('"').toString();
+    }
+
+    private static String describe(Object[] key) {
+        return "(" + key[0] + ", " + escape((String) key[1]) + ")";
+    }
+
+    private static long value(long key, long version) {
+        return key * VERSIONS + version;
+    }
+
+    private static boolean done(List<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
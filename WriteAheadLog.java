@@ -0,0 +1,353 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 
+ * This class represents the write-ahead log in front of the record file and
+ * 
+ * the index log. Changes are written to it in batches, each of which records
+ * 
+ * where both data files ended before the batch was applied, so that after a
+ * 
+ * crash the data files can be cut back to that point and every logged batch
+ * 
+ * re-applied in order. A batch is laid out as
+ * 
+ * [magic:4][recordStart:8][indexStart:8][count:4][payloadLength:4][payload][crc:8]
+ * 
+ * where the payload holds count entries of [type:1][length:4][data], and the
+ * 
+ * CRC32 covers everything before it, so a batch torn by a crash is detected
+ * 
+ * and ignored along with everything after it.
+ * 
+ */
+
+public class WriteAheadLog implements AutoCloseable {
+
+    /**
+     * 
+     * When the log and the data files are forced to disk.
+     * 
+     * NONE: never; a batch survives a process crash but not an OS crash.
+     * 
+     * LOG:  the log is forced once per batch, the data files only when the log
+     * 
+     *       is truncated; every acknowledged batch survives an OS crash.
+     * 
+     * ALL:  the log and then the data files are forced once per batch, after
+     * 
+     *       which the log is truncated right away.
+     * 
+     */
+
+    public enum FsyncMode {
+        NONE, LOG, ALL
+    }
+
+    static final byte INSERT = 1;
+
+    static final byte DELETE = 2;
+
+    private static final int BATCH_MAGIC = 0x57414C31; // "WAL1"
+
+    private static final int BATCH_HEADER = 4 + 8 + 8 + 4 + 4;
+
+    private final FileChannel channel;
+
+    private final FsyncMode fsyncMode;
+
+    private long end;
+
+    /* ~~~~~~~~~~~~~~~~ API:APPEND, RECOVER ~~~~~~~~~~~~~~~~ */
+
+    /**
+     * 
+     * This method appends a batch to the log with a single write and forces it
+     * 
+     * to disk unless the fsync mode is NONE.
+     * 
+     * @param batch: the batch to be logged
+     * 
+     * @throws IOException if the log cannot be written
+     * 
+     */
+
+    public void append(Batch batch) throws IOException {
+
+        int payloadLength = 0;
+
+        List<byte[]> data = new ArrayList<>(batch.entries.size());
+
+        for (Entry entry : batch.entries) {
+
+            byte[] bytes = entry.data.getBytes(StandardCharsets.ISO_8859_1);
+
+            data.add(bytes);
+
+            payloadLength += 1 + 4 + bytes.length;
+
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BATCH_HEADER + payloadLength + 8);
+
+        buffer.putInt(BATCH_MAGIC).putLong(batch.recordStart).putLong(batch.indexStart);
+
+        buffer.putInt(batch.entries.size()).putInt(payloadLength);
+
+        for (int i = 0; i < data.size(); i++) {
+
+            buffer.put(batch.entries.get(i).type).putInt(data.get(i).length).put(data.get(i));
+
+        }
+
+        CRC32 crc = new CRC32();
+
+        crc.update(buffer.array(), 0, buffer.position());
+
+        buffer.putLong(crc.getValue());
+
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            this.end += this.channel.write(buffer, this.end);
+        }
+
+        if (this.fsyncMode != FsyncMode.NONE) {
+            this.channel.force(false);
+        }
+
+    }
+
+    /**
+     * 
+     * This method reads back every complete batch in the log, in the order they
+     * 
+     * were appended. Reading stops at the first batch that is truncated or
+     * 
+     * fails its checksum, since it was never acknowledged.
+     * 
+     * @return the logged batches
+     * 
+     * @throws IOException if the log cannot be read
+     * 
+     */
+
+    public List<Batch> readBatches() throws IOException {
+
+        List<Batch> batches = new ArrayList<>();
+
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER);
+
+        long position = 0;
+
+        while (position + BATCH_HEADER <= this.end) {
+
+            header.clear();
+
+            readFully(header, position);
+
+            int payloadLength = header.getInt(BATCH_HEADER - 4);
+
+            if (header.getInt(0) != BATCH_MAGIC || payloadLength < 0
+                    || position + BATCH_HEADER + payloadLength + 8 > this.end) {
+                break;
+            }
+
+            ByteBuffer rest = ByteBuffer.allocate(payloadLength + 8);
+
+            readFully(rest, position + BATCH_HEADER);
+
+            CRC32 crc = new CRC32();
+
+            crc.update(header.array(), 0, BATCH_HEADER);
+
+            crc.update(rest.array(), 0, payloadLength);
+
+            if (rest.getLong(payloadLength) != crc.getValue()) {
+                break;
+            }
+
+            Batch batch = new Batch(header.getLong(4), header.getLong(12));
+
+            rest.flip().limit(payloadLength);
+
+            for (int i = 0; i < header.getInt(20); i++) {
+
+                byte type = rest.get();
+
+                byte[] bytes = new byte[rest.getInt()];
+
+                rest.get(bytes);
+
+                batch.add(type, new String(bytes, StandardCharsets.ISO_8859_1));
+
+            }
+
+            batches.add(batch);
+
+            position += BATCH_HEADER + payloadLength + 8;
+
+        }
+
+        return batches;
+
+    }
+
+    /**
+     * 
+     * This method empties the log once every batch in it is durable in the data
+     * 
+     * files.
+     * 
+     * @throws IOException if the log cannot be truncated
+     * 
+     */
+
+    public void truncate() throws IOException {
+
+        this.channel.truncate(0);
+
+        this.end = 0;
+
+        if (this.fsyncMode != FsyncMode.NONE) {
+            this.channel.force(false);
+        }
+
+    }
+
+    /**
+     * 
+     * @return the number of bytes currently in the log
+     * 
+     */
+
+    public long size() {
+
+        return this.end;
+
+    }
+
+    /**
+     * 
+     * @return the fsync mode the log was opened with
+     * 
+     */
+
+    public FsyncMode fsyncMode() {
+
+        return this.fsyncMode;
+
+    }
+
+    @Override
+
+    public void close() throws IOException {
+
+        this.channel.close();
+
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of write-ahead log");
+            }
+
+        }
+
+    }
+
+    /**
+     * 
+     * Constructor
+     * 
+     * @param path:      the log file, created if it does not exist
+     * 
+     * @param fsyncMode: when the log is forced to disk
+     * 
+     * @throws IOException if the log cannot be opened
+     * 
+     */
+
+    public WriteAheadLog(String path, FsyncMode fsyncMode) throws IOException {
+
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        this.fsyncMode = fsyncMode;
+
+        this.end = this.channel.size();
+
+    }
+
+    /**
+     * 
+     * This class represents one logged change: an INSERT carries the record
+     * 
+     * line to be appended, a DELETE carries "Emp_ID,offset" of the record to
+     * 
+     * be removed.
+     * 
+     */
+
+    public static class Entry {
+
+        final byte type;
+
+        final String data;
+
+        Entry(byte type, String data) {
+
+            this.type = type;
+
+            this.data = data;
+
+        }
+
+    }
+
+    /**
+     * 
+     * This class represents a group of entries that are logged, forced and
+     * 
+     * applied together, along with the lengths of the record file and the index
+     * 
+     * log just before they were applied.
+     * 
+     */
+
+    public static class Batch {
+
+        final long recordStart;
+
+        final long indexStart;
+
+        final List<Entry> entries = new ArrayList<>();
+
+        void add(byte type, String data) {
+
+            this.entries.add(new Entry(type, data));
+
+        }
+
+        Batch(long recordStart, long indexStart) {
+
+            this.recordStart = recordStart;
+
+            this.indexStart = indexStart;
+
+        }
+
+    }
+
+}